@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo.messaging.InMemoryMessageRepository;
+import com.robo.messaging.MessageBus;
+import com.robo.messaging.MessageBusImp;
+import com.robo.messaging.OverflowPolicy;
+import com.robo.messaging.SequentialTokenGenerator;
+import com.robo.messaging.ThreadOption;
+
+/**
+ * Handing messages off to a BACKGROUND subscriber. The mailbox is bounded and blocks when full,
+ * so the measured rate is the sustained hand-off rate rather than the rate of filling a queue.
+ *
+ * @author robo-admin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackgroundHandOffBenchmark {
+
+    private ExecutorService mExecutorService;
+    private MessageBus mMessageBus;
+    private TickMessage mMessage;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mExecutorService = Executors.newCachedThreadPool();
+        mMessageBus = new MessageBusImp(new SequentialTokenGenerator(), mExecutorService, new InMemoryMessageRepository());
+        mMessageBus.subscribe(new ConsumingSubscriber(blackhole), 0, true, false, ThreadOption.BACKGROUND, true,
+                1024, OverflowPolicy.BLOCK);
+        mMessage = new TickMessage(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutorService.shutdownNow();
+    }
+
+    @Benchmark
+    public void publish() {
+        mMessageBus.publish(mMessage);
+    }
+}
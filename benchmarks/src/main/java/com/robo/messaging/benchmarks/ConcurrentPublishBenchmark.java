@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo.messaging.MessageBus;
+import com.robo.messaging.MessageBusImp;
+import com.robo.messaging.Subscriber;
+import com.robo.messaging.ThreadOption;
+
+/**
+ * Publishing to 10 PUBLISHER subscribers from 1, 2, 4 and as many threads as there are cores, all
+ * sharing one bus. JMH reports the total throughput of all threads, which should rise with the
+ * thread count, up to the core count, if publishing does not serialize on the bus.
+ * <p>
+ * Subscribers write no shared state, so the only contention measured is the bus's own.
+ *
+ * @author robo-admin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentPublishBenchmark {
+
+    private MessageBus mMessageBus;
+    private TickMessage mMessage;
+
+    @Setup
+    public void setUp() {
+        mMessageBus = new MessageBusImp();
+        for (int i = 0; i < 10; i++) {
+            mMessageBus.subscribe(new IdleSubscriber(), i, true, false, ThreadOption.PUBLISHER, true);
+        }
+        mMessage = new TickMessage(1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publish1Thread() {
+        mMessageBus.publish(mMessage);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void publish2Threads() {
+        mMessageBus.publish(mMessage);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publish4Threads() {
+        mMessageBus.publish(mMessage);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void publishMaxThreads() {
+        mMessageBus.publish(mMessage);
+    }
+
+    private static final class IdleSubscriber implements Subscriber<TickMessage> {
+
+        @Override
+        public void receive(TickMessage message) {
+            message.getContent();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo.messaging.MessageBus;
+import com.robo.messaging.MessageBusImp;
+import com.robo.messaging.ThreadOption;
+
+/**
+ * Publishing to 1, 10 and 1000 PUBLISHER subscribers of the published type.
+ *
+ * @author robo-admin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishFanOutBenchmark {
+
+    @Param({"1", "10", "1000"})
+    public int subscriberCount;
+
+    private MessageBus mMessageBus;
+    private TickMessage mMessage;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mMessageBus = new MessageBusImp();
+        for (int i = 0; i < subscriberCount; i++) {
+            mMessageBus.subscribe(new ConsumingSubscriber(blackhole), 0, true, false, ThreadOption.PUBLISHER, true);
+        }
+        mMessage = new TickMessage(1);
+    }
+
+    @Benchmark
+    public void publish() {
+        mMessageBus.publish(mMessage);
+    }
+}
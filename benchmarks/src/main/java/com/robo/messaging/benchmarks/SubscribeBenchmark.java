@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo.messaging.InMemoryMessageRepository;
+import com.robo.messaging.Message;
+import com.robo.messaging.MessageBus;
+import com.robo.messaging.MessageBusImp;
+import com.robo.messaging.SequentialTokenGenerator;
+import com.robo.messaging.Subscriber;
+import com.robo.messaging.SubscriptionToken;
+import com.robo.messaging.ThreadOption;
+import com.robo.messaging.TokenGenerator;
+import com.robo.messaging.UUIDToken;
+import com.robo.reflect.TypeUtils;
+
+/**
+ * Cost of subscribing from four threads, with the original token generation ("uuid": a random
+ * UUID and a reflective message type lookup per subscribe) against {@link SequentialTokenGenerator}
+ * with cached message types ("sequential"). {@link #generateToken()} isolates the token, while
+ * {@link #subscribeAndUnsubscribe(Blackhole)} includes the registry updates.
+ *
+ * @author robo-admin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SubscribeBenchmark {
+
+    @Param({"uuid", "sequential"})
+    public String tokenGenerator;
+
+    private TokenGenerator mTokenGenerator;
+    private MessageBus mMessageBus;
+    private ConsumingSubscriber mSubscriber;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mTokenGenerator = "uuid".equals(tokenGenerator) ? new UncachedUUIDTokenGenerator() : new SequentialTokenGenerator();
+        mMessageBus = new MessageBusImp(mTokenGenerator, Executors.newCachedThreadPool(), new InMemoryMessageRepository());
+        mSubscriber = new ConsumingSubscriber(blackhole);
+    }
+
+    @Benchmark
+    public SubscriptionToken generateToken() {
+        return mTokenGenerator.generateToken(mSubscriber);
+    }
+
+    @Benchmark
+    public void subscribeAndUnsubscribe(Blackhole blackhole) {
+        SubscriptionToken token = mMessageBus.subscribe(mSubscriber, 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.unsubscribe(token);
+        blackhole.consume(token);
+    }
+
+    /**
+     * Token generation as it was before tokens became sequential.
+     */
+    private static class UncachedUUIDTokenGenerator implements TokenGenerator {
+        @SuppressWarnings("unchecked")
+        @Override
+        public SubscriptionToken generateToken(Subscriber<?> subscriber) {
+            return new UUIDToken(UUID.randomUUID(), (Class<? extends Message>) TypeUtils.getGenericParameterType(subscriber.getClass(), 0));
+        }
+    }
+}
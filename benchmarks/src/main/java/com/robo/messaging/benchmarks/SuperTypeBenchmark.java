@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo.messaging.AbstractMessage;
+import com.robo.messaging.MessageBus;
+import com.robo.messaging.MessageBusImp;
+import com.robo.messaging.Subscriber;
+import com.robo.messaging.SubscriptionToken;
+import com.robo.messaging.ThreadOption;
+
+/**
+ * Publishing a message eight classes and eight interfaces deep, subscribed for through its
+ * root class and root interface. {@link #publish()} measures the cached route;
+ * {@link #publishAfterSubscriptionChange(Blackhole)} changes subscriptions of an unrelated type
+ * before each publish, so that the route is rebuilt by walking the whole hierarchy.
+ *
+ * @author robo-admin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuperTypeBenchmark {
+
+    private MessageBus mMessageBus;
+    private Level7 mMessage;
+    private Subscriber<TickMessage> mUnrelatedSubscriber;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mMessageBus = new MessageBusImp();
+        mMessageBus.subscribe(new Subscriber<Level0>() {
+            @Override
+            public void receive(Level0 message) {
+                blackhole.consume(message);
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new Subscriber<Marker0>() {
+            @Override
+            public void receive(Marker0 message) {
+                blackhole.consume(message);
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        mUnrelatedSubscriber = new ConsumingSubscriber(blackhole);
+        mMessage = new Level7();
+    }
+
+    @Benchmark
+    public void publish() {
+        mMessageBus.publish(mMessage);
+    }
+
+    @Benchmark
+    public void publishAfterSubscriptionChange(Blackhole blackhole) {
+        SubscriptionToken token = mMessageBus.subscribe(mUnrelatedSubscriber, 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.unsubscribe(token);
+        mMessageBus.publish(mMessage);
+        blackhole.consume(token);
+    }
+
+    public interface Marker0 extends com.robo.messaging.Message<Long> {
+    }
+
+    public interface Marker1 extends Marker0 {
+    }
+
+    public interface Marker2 extends Marker1 {
+    }
+
+    public interface Marker3 extends Marker2 {
+    }
+
+    public interface Marker4 extends Marker3 {
+    }
+
+    public interface Marker5 extends Marker4 {
+    }
+
+    public interface Marker6 extends Marker5 {
+    }
+
+    public interface Marker7 extends Marker6 {
+    }
+
+    public static class Level0 extends AbstractMessage<Long> implements Marker0 {
+        public Level0() {
+            super(0L);
+        }
+    }
+
+    public static class Level1 extends Level0 implements Marker1 {
+    }
+
+    public static class Level2 extends Level1 implements Marker2 {
+    }
+
+    public static class Level3 extends Level2 implements Marker3 {
+    }
+
+    public static class Level4 extends Level3 implements Marker4 {
+    }
+
+    public static class Level5 extends Level4 implements Marker5 {
+    }
+
+    public static class Level6 extends Level5 implements Marker6 {
+    }
+
+    public static class Level7 extends Level6 implements Marker7 {
+    }
+}
@@ -15,25 +15,57 @@
  */
 package com.robo.messaging;
 
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import com.robo.Guard;
 
 /**
  * The base class for implementing messages.
+ * <p>
+ * Each message has an identity which makes it equal only to itself. Identities are generated by a
+ * {@link MessageIdGenerator} configured via {@link #setIdGenerator(MessageIdGenerator, boolean)};
+ * by default ids come from a thread-local sequence and are assigned lazily, the first time the
+ * message is hashed, e.g. when it is stored in history. Messages that are only published never
+ * pay for an id.
  *
  * @author robo-admin
  */
 public abstract class AbstractMessage<TContent> implements Message<TContent> {
 
-    private UUID mUuid;
+    private static final long UNASSIGNED_ID = 0;
+
+    private static final AtomicLongFieldUpdater<AbstractMessage> ID_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(AbstractMessage.class, "mId");
+
+    private static volatile MessageIdGenerator sIdGenerator = MessageIdGenerators.threadLocalSequence();
+    private static volatile boolean sLazyIds = true;
+
+    private volatile long mId;
     private TContent mContent;
     private boolean mIsHistoric;
 
     protected AbstractMessage(TContent content) {
-        mUuid = UUID.randomUUID();
+        if (!sLazyIds) {
+            mId = sIdGenerator.nextId();
+        }
         mContent = content;
         mIsHistoric = false;
     }
 
+    /**
+     * Sets the generator of identities for messages created from now on. Ids of different
+     * generators may collide, so this should be called once, before any message is created.
+     *
+     * @param idGenerator The generator.
+     * @param lazy        true to generate an id only when a message is first hashed, false to
+     *                    generate it when the message is created.
+     */
+    public static void setIdGenerator(MessageIdGenerator idGenerator, boolean lazy) {
+        Guard.isNotNull(idGenerator, IllegalArgumentException.class, "idGenerator");
+        sIdGenerator = idGenerator;
+        sLazyIds = lazy;
+    }
+
     @Override
     public TContent getContent() {
         return mContent;
@@ -51,14 +83,29 @@ public abstract class AbstractMessage<TContent> implements Message<TContent> {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (null == obj || !obj.getClass().equals(getClass())) {
             return false;
         }
-        return ((AbstractMessage) obj).mUuid.equals(mUuid);
+        // a message without an id has never been compared by hash, so it can only equal itself.
+        long id = mId;
+        return UNASSIGNED_ID != id && ((AbstractMessage) obj).mId == id;
     }
 
     @Override
     public int hashCode() {
-        return mUuid.hashCode() ^ 0x17;
+        long id = getId();
+        return (int) (id ^ (id >>> 32)) ^ 0x17;
+    }
+
+    private long getId() {
+        long id = mId;
+        if (UNASSIGNED_ID == id) {
+            ID_UPDATER.compareAndSet(this, UNASSIGNED_ID, sIdGenerator.nextId());
+            id = mId;
+        }
+        return id;
     }
 }
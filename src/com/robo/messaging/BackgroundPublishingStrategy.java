@@ -16,29 +16,66 @@
  */
 package com.robo.messaging;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
-import com.robo.threading.ThreadUtils;
-
-final class BackgroundPublishingStrategy<TMessage extends Message> implements PublishingStrategy<TMessage> {
+/**
+ * Delivers messages on background threads through a {@link Mailbox} owned by the subscription, so
+ * that one subscriber receives messages in the order they were published and a burst of messages
+ * costs a single executor submission.
+ * <p>
+ * When the publisher already runs on a background platform thread and the mailbox is idle, the
+ * mailbox is drained on the publisher's thread instead, unless the strategy was created to always
+ * hand off. A virtual publisher always hands off.
+ */
+final class BackgroundPublishingStrategy<TMessage extends Message> implements QueuedPublishingStrategy<TMessage> {
 
-	private ExecutorService mExecutorService;
+	private final Mailbox<TMessage> mMailbox;
+	private final boolean mDrainInline;
 
 	public BackgroundPublishingStrategy(ExecutorService executorService) {
-		mExecutorService = executorService;
+		this(executorService, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+	}
+
+	public BackgroundPublishingStrategy(ExecutorService executorService, int capacity, OverflowPolicy overflowPolicy) {
+		this(executorService, capacity, overflowPolicy, true);
+	}
+
+	/**
+	 * @param drainInline false to always drain on the executor, even when the publisher runs on a
+	 *                    background thread, so that the publisher never runs the subscriber.
+	 */
+	public BackgroundPublishingStrategy(ExecutorService executorService, int capacity, OverflowPolicy overflowPolicy, boolean drainInline) {
+		mMailbox = new Mailbox<>(executorService, capacity, overflowPolicy);
+		mDrainInline = drainInline;
 	}
 
 	@Override
-	public void deliverMessage(final Subscriber<TMessage> subscriber, final TMessage message) {
-		if (ThreadUtils.isCurrentThreadBackgroundThread()) {
-			subscriber.receive(message);
-		} else {
-			mExecutorService.execute(new Runnable() {
-				@Override
-				public void run() {
-					subscriber.receive(message);
-				}
-			});
-		}
+	public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message) {
+		deliverMessage(subscriber, message, null);
+	}
+
+	@Override
+	public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+		deliverMessages(subscriber, messages, null);
+	}
+
+	@Override
+	public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message, PublisherCallback callback) {
+		mMailbox.post(subscriber, message, isDrainingInline(), callback);
+	}
+
+	@Override
+	public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages, PublisherCallback callback) {
+		mMailbox.postAll(subscriber, messages, isDrainingInline(), callback);
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return mMailbox.size();
+	}
+
+	private boolean isDrainingInline() {
+		return mDrainInline && VirtualThreads.isCurrentThreadBackgroundPlatformThread();
 	}
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Extended callback that is also told how bounded subscriber queues dealt with a published message.
+ *
+ * @author robo-admin
+ * @see OverflowPolicy
+ */
+public interface BackpressureCallback extends PublisherCallback {
+
+    /**
+     * Called when a subscriber queue was full and a message was dropped, either the one being
+     * published or the oldest one waiting in the queue.
+     */
+    void messageDropped();
+
+    /**
+     * Called when a subscriber queue was full and the publisher had to wait for room.
+     */
+    void backpressureApplied();
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.List;
+
+/**
+ * Strategy for publishing messages that is also able to deliver a whole batch at once.
+ * <p>
+ * Strategies that do not implement this interface receive batches one message at a time.
+ *
+ * @author robo-admin
+ *
+ * @param <TMessage>
+ */
+public interface BatchPublishingStrategy<TMessage extends Message> extends PublishingStrategy<TMessage> {
+
+    /**
+     * Delivers a batch of messages to a subscriber: a single {@link BatchSubscriber#receiveAll(List)}
+     * call for batch subscribers, otherwise one {@link Subscriber#receive(Message)} call per message.
+     */
+    void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages);
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.List;
+
+/**
+ * Defines a subscriber that is able to receive a whole batch of messages in one call.
+ * <p>
+ * When messages are published with {@link MessageBus#publishAll(java.util.Collection) publishAll},
+ * a batch subscriber receives every message of the batch it subscribed for through
+ * {@link #receiveAll(List)}. Messages published one by one still go through {@link #receive(Message)}.
+ *
+ * @param <TMessage> Type of message.
+ * @author robo-admin
+ */
+public interface BatchSubscriber<TMessage extends Message> extends Subscriber<TMessage> {
+
+    /**
+     * Receives a batch of messages.
+     *
+     * @param messages The messages, in the order they were published. The list must not be modified.
+     */
+    void receiveAll(List<TMessage> messages);
+}
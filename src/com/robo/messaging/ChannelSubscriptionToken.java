@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Token of a subscription made in a named channel. Wraps the token generated for the subscriber,
+ * so that the bus can tell which channel's registry the subscription lives in.
+ *
+ * @author robo-admin
+ */
+final class ChannelSubscriptionToken extends SubscriptionToken {
+    private final String mChannel;
+    private final SubscriptionToken mToken;
+
+    ChannelSubscriptionToken(String channel, SubscriptionToken token) {
+        super(token.getMessageType());
+        mChannel = channel;
+        mToken = token;
+    }
+
+    String getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (null == obj || !(obj instanceof ChannelSubscriptionToken)) {
+            return false;
+        }
+        ChannelSubscriptionToken other = (ChannelSubscriptionToken) obj;
+        return other.mChannel.equals(mChannel) && other.mToken.equals(mToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return mToken.hashCode() * 31 + mChannel.hashCode();
+    }
+}
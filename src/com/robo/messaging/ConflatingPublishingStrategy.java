@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.robo.threading.ThreadUtils;
+
+/**
+ * Delivers only the latest message per key to a subscriber.
+ * <p>
+ * Messages wait in a map keyed by {@link KeyExtractor}, so while the subscriber is busy a newer
+ * message replaces the pending one with the same key, keeping the position of the first. The work
+ * queued for a subscriber is thereby bounded by the number of distinct keys, not by the publish rate.
+ * A single drain task hands over everything pending at once, as a batch.
+ *
+ * @param <TMessage> Type of message.
+ * @author robo-admin
+ */
+final class ConflatingPublishingStrategy<TMessage extends Message> implements QueuedPublishingStrategy<TMessage>, Runnable {
+
+    private final Executor mExecutor;
+    private final ThreadOption mThreadOption;
+    private final KeyExtractor<Object> mKeyExtractor;
+    private final Map<Object, TMessage> mPendingMessages;
+    private Subscriber<TMessage> mSubscriber;
+    private boolean mIsDrainScheduled;
+
+    @SuppressWarnings("unchecked")
+    ConflatingPublishingStrategy(Executor executor, ThreadOption threadOption, KeyExtractor<?> keyExtractor) {
+        mExecutor = executor;
+        mThreadOption = threadOption;
+        mKeyExtractor = (KeyExtractor<Object>) keyExtractor;
+        mPendingMessages = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message) {
+        boolean drainInline = isDrainInline();
+        boolean isDrainOwner;
+        synchronized (mPendingMessages) {
+            put(message);
+            isDrainOwner = claimDrain(subscriber);
+        }
+        drain(isDrainOwner, drainInline);
+    }
+
+    @Override
+    public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+        boolean drainInline = isDrainInline();
+        boolean isDrainOwner;
+        synchronized (mPendingMessages) {
+            for (int i = 0; i < messages.size(); i++) {
+                put(messages.get(i));
+            }
+            isDrainOwner = claimDrain(subscriber);
+        }
+        drain(isDrainOwner, drainInline);
+    }
+
+    @Override
+    public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message, PublisherCallback callback) {
+        deliverMessage(subscriber, message);
+    }
+
+    @Override
+    public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages, PublisherCallback callback) {
+        deliverMessages(subscriber, messages);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        synchronized (mPendingMessages) {
+            return mPendingMessages.size();
+        }
+    }
+
+    @Override
+    public void run() {
+        drainPending(false);
+    }
+
+    /**
+     * Hands everything pending to the subscriber until nothing is left.
+     *
+     * @param isInline true if draining on the publisher's thread rather than on the executor.
+     */
+    private void drainPending(boolean isInline) {
+        while (true) {
+            Subscriber<TMessage> subscriber;
+            List<TMessage> messages;
+            synchronized (mPendingMessages) {
+                if (mPendingMessages.isEmpty()) {
+                    mIsDrainScheduled = false;
+                    mSubscriber = null;
+                    return;
+                }
+                subscriber = mSubscriber;
+                messages = new ArrayList<>(mPendingMessages.values());
+                mPendingMessages.clear();
+            }
+            try {
+                Subscription.receiveAll(subscriber, messages);
+            } catch (RuntimeException | Error e) {
+                if (isInline) {
+                    // Leave what arrived in the meantime to the next publish, which drains it on the
+                    // thread its option requires.
+                    synchronized (mPendingMessages) {
+                        mIsDrainScheduled = false;
+                    }
+                } else {
+                    // Hand what arrived in the meantime to a fresh drain before propagating.
+                    mExecutor.execute(this);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void put(TMessage message) {
+        Object key = mKeyExtractor.extractKey(message.getContent());
+        if (null == key) {
+            // Without a key there is nothing to conflate with.
+            key = new Object();
+        }
+        mPendingMessages.put(key, message);
+    }
+
+    /**
+     * @return true if the caller has become responsible for draining.
+     */
+    private boolean claimDrain(Subscriber<TMessage> subscriber) {
+        mSubscriber = subscriber;
+        if (mIsDrainScheduled) {
+            return false;
+        }
+        mIsDrainScheduled = true;
+        return true;
+    }
+
+    private void drain(boolean isDrainOwner, boolean drainInline) {
+        if (isDrainOwner) {
+            if (drainInline) {
+                drainPending(true);
+            } else {
+                mExecutor.execute(this);
+            }
+        }
+    }
+
+    private boolean isDrainInline() {
+        switch (mThreadOption) {
+            case PUBLISHER:
+                return true;
+            case UI:
+                return !ThreadUtils.isCurrentThreadBackgroundThread();
+            case VIRTUAL:
+                return VirtualThreads.isCurrentThreadVirtual();
+            default: // case BACKGROUND:
+                return VirtualThreads.isCurrentThreadBackgroundPlatformThread();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Specifies which historic messages are evicted first once history limits are exceeded.
+ *
+ * @author robo-admin
+ */
+public enum EvictionOrder {
+    /**
+     * Evicts the message stored first.
+     */
+    FIFO,
+
+    /**
+     * Evicts the message least recently stored again or delivered as historic message. Using a
+     * message does not reset its age, which always counts from the time it was first stored.
+     */
+    LRU
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.robo.Guard;
+
+/**
+ * Exposes messages of a type published on a {@link MessageBus} as a {@link Flow.Publisher}.
+ * <p>
+ * Each {@link Flow.Subscriber} gets a subscription on the bus whose publishing strategy puts
+ * messages into a bounded buffer of its own. Messages leave the buffer only as the subscriber
+ * requests them, on the given executor, one at a time. Once the buffer is full, further messages
+ * are handled according to the {@link OverflowPolicy}, and reported to a publisher's
+ * {@link BackpressureCallback} like for bounded background subscribers.
+ * <p>
+ * Priority and child message rules of the bus apply to flow subscribers like to any other subscriber.
+ * A flow subscriber whose {@link Flow.Subscriber#onNext(Object) onNext} throws is cancelled and
+ * receives the exception through {@link Flow.Subscriber#onError(Throwable) onError}.
+ *
+ * @param <TMessage> Type of message.
+ * @author robo-admin
+ */
+public class FlowPublisher<TMessage extends Message> implements Flow.Publisher<TMessage> {
+
+    private final MessageBus mBus;
+    private final Class<TMessage> mMessageType;
+    private final int mPriority;
+    private final boolean mAcceptsChildMessages;
+    private final boolean mReceiveHistoricMessages;
+    private final int mBufferSize;
+    private final OverflowPolicy mOverflowPolicy;
+    private final Executor mExecutor;
+    private final Set<FlowSubscription<TMessage>> mSubscriptions;
+
+    public FlowPublisher(MessageBus bus, Class<TMessage> messageType, int bufferSize) {
+        this(bus, messageType, 0, true, false, bufferSize, OverflowPolicy.BLOCK, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bus                     The bus to take messages from.
+     * @param messageType             Type of messages to publish.
+     * @param priority                Priority of the bus subscriptions made for flow subscribers.
+     * @param acceptsChildMessages    Flag, indicates if messages of sub types are published as well.
+     * @param receiveHistoricMessages Flag, indicates if flow subscribers start with the history of the bus.
+     * @param bufferSize              Number of messages buffered per flow subscriber while it has no demand.
+     * @param overflowPolicy          What to do with a message for a subscriber whose buffer is full.
+     * @param executor                Executor that hands messages over to flow subscribers.
+     */
+    public FlowPublisher(MessageBus bus, Class<TMessage> messageType, int priority, boolean acceptsChildMessages,
+                         boolean receiveHistoricMessages, int bufferSize, OverflowPolicy overflowPolicy, Executor executor) {
+        Guard.isNotNull(bus, IllegalArgumentException.class, "bus");
+        Guard.isNotNull(messageType, IllegalArgumentException.class, "messageType");
+        Guard.isNotNull(overflowPolicy, IllegalArgumentException.class, "overflowPolicy");
+        Guard.isNotNull(executor, IllegalArgumentException.class, "executor");
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize");
+        }
+        mBus = bus;
+        mMessageType = messageType;
+        mPriority = priority;
+        mAcceptsChildMessages = acceptsChildMessages;
+        mReceiveHistoricMessages = receiveHistoricMessages;
+        mBufferSize = bufferSize;
+        mOverflowPolicy = overflowPolicy;
+        mExecutor = executor;
+        mSubscriptions = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TMessage> subscriber) {
+        Guard.isNotNull(subscriber, NullPointerException.class, "subscriber");
+        FlowSubscription<TMessage> subscription = new FlowSubscription<>(this, subscriber);
+        mSubscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Stops publishing. Every flow subscriber receives the messages already buffered for it, as it
+     * requests them, and then {@link Flow.Subscriber#onComplete()}.
+     */
+    public void close() {
+        for (FlowSubscription<TMessage> subscription : mSubscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Subscription of one flow subscriber, which is also its subscriber and publishing strategy on the bus.
+     */
+    private static final class FlowSubscription<TMessage extends Message>
+            implements Flow.Subscription, Subscriber<TMessage>, TypedSubscriber, QueuedPublishingStrategy<TMessage> {
+
+        private final FlowPublisher<TMessage> mPublisher;
+        private final Flow.Subscriber<? super TMessage> mSubscriber;
+        private final ArrayDeque<TMessage> mBuffer;
+        private final AtomicLong mDemand;
+        /**
+         * Number of drain requests not yet served. Whoever moves it away from zero drains.
+         */
+        private final AtomicInteger mPendingDrains;
+        private final Runnable mDrainTask;
+        private SubscriptionToken mToken;
+        private volatile boolean mIsCancelled;
+        private volatile boolean mIsCompleted;
+        private volatile Throwable mError;
+        private volatile Thread mDrainThread;
+
+        FlowSubscription(FlowPublisher<TMessage> publisher, Flow.Subscriber<? super TMessage> subscriber) {
+            mPublisher = publisher;
+            mSubscriber = subscriber;
+            mBuffer = new ArrayDeque<>();
+            mDemand = new AtomicLong();
+            mPendingDrains = new AtomicInteger();
+            mDrainTask = new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            };
+        }
+
+        /**
+         * Subscribes on the bus, unless the subscriber already cancelled from within onSubscribe.
+         */
+        void start() {
+            FlowPublisher<TMessage> publisher = mPublisher;
+            SubscriptionToken token = publisher.mBus.subscribe(this, publisher.mPriority, publisher.mAcceptsChildMessages,
+                    publisher.mReceiveHistoricMessages, this, true);
+            synchronized (this) {
+                mToken = token;
+            }
+            if (mIsCancelled || mIsCompleted) {
+                unsubscribe();
+            }
+        }
+
+        void complete() {
+            mIsCompleted = true;
+            unsubscribe();
+            wakePublishers();
+            signal();
+        }
+
+        @Override
+        public Class<? extends Message> getMessageType() {
+            return mPublisher.mMessageType;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                mError = new IllegalArgumentException("Non-positive request: " + n);
+                unsubscribe();
+                wakePublishers();
+            } else {
+                long demand;
+                long next;
+                do {
+                    demand = mDemand.get();
+                    next = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                } while (!mDemand.compareAndSet(demand, next));
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            mIsCancelled = true;
+            unsubscribe();
+            synchronized (mBuffer) {
+                mBuffer.clear();
+            }
+            wakePublishers();
+        }
+
+        @Override
+        public void receive(TMessage message) {
+            // Messages arrive through the publishing strategy side of this object instead.
+            offer(message, null);
+        }
+
+        @Override
+        public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message) {
+            offer(message, null);
+        }
+
+        @Override
+        public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+            deliverMessages(subscriber, messages, null);
+        }
+
+        @Override
+        public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message, PublisherCallback callback) {
+            offer(message, callback);
+        }
+
+        @Override
+        public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages, PublisherCallback callback) {
+            for (int i = 0; i < messages.size(); i++) {
+                offer(messages.get(i), callback);
+            }
+        }
+
+        @Override
+        public int getQueueDepth() {
+            synchronized (mBuffer) {
+                return mBuffer.size();
+            }
+        }
+
+        private void offer(TMessage message, PublisherCallback callback) {
+            boolean backpressureApplied = false;
+            synchronized (mBuffer) {
+                while (mBuffer.size() >= mPublisher.mBufferSize && !isTerminated()) {
+                    switch (mPublisher.mOverflowPolicy) {
+                        case DROP_NEWEST:
+                            messageDropped(callback);
+                            return;
+                        case DROP_OLDEST:
+                            mBuffer.poll();
+                            messageDropped(callback);
+                            break;
+                        case FAIL:
+                            throw new IllegalStateException("Flow subscriber buffer is full, capacity: " + mPublisher.mBufferSize);
+                        default: // case BLOCK:
+                            if (Thread.currentThread() == mDrainThread) {
+                                // Published from within onNext; waiting for demand would never end.
+                                messageDropped(callback);
+                                return;
+                            }
+                            backpressureApplied = true;
+                            try {
+                                mBuffer.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new IllegalStateException("Interrupted while waiting for flow subscriber demand", e);
+                            }
+                            break;
+                    }
+                }
+                if (isTerminated()) {
+                    return;
+                }
+                mBuffer.add(message);
+            }
+            if (backpressureApplied && callback instanceof BackpressureCallback) {
+                ((BackpressureCallback) callback).backpressureApplied();
+            }
+            signal();
+        }
+
+        /**
+         * Releases publishers blocked on a full buffer, which give up once the subscription is terminated.
+         */
+        private void wakePublishers() {
+            synchronized (mBuffer) {
+                mBuffer.notifyAll();
+            }
+        }
+
+        private boolean isTerminated() {
+            return mIsCancelled || mIsCompleted || null != mError;
+        }
+
+        private void signal() {
+            if (mPendingDrains.getAndIncrement() == 0) {
+                mPublisher.mExecutor.execute(mDrainTask);
+            }
+        }
+
+        private void drain() {
+            mDrainThread = Thread.currentThread();
+            try {
+                int missed = 1;
+                do {
+                    long demand = mDemand.get();
+                    long emitted = 0;
+                    while (emitted != demand && !mIsCancelled) {
+                        TMessage message = poll();
+                        if (null == message) {
+                            break;
+                        }
+                        try {
+                            mSubscriber.onNext(message);
+                        } catch (RuntimeException e) {
+                            // The subscriber broke the contract; stop feeding it and tell it why.
+                            cancel();
+                            terminate();
+                            mSubscriber.onError(e);
+                            return;
+                        }
+                        emitted++;
+                    }
+                    if (mIsCancelled) {
+                        return;
+                    }
+                    if (emitted != 0 && demand != Long.MAX_VALUE) {
+                        mDemand.addAndGet(-emitted);
+                    }
+                    Throwable error = mError;
+                    if (null != error) {
+                        terminate();
+                        mSubscriber.onError(error);
+                        return;
+                    }
+                    if (mIsCompleted && getQueueDepth() == 0) {
+                        terminate();
+                        mSubscriber.onComplete();
+                        return;
+                    }
+                    missed = mPendingDrains.addAndGet(-missed);
+                } while (missed != 0);
+            } finally {
+                mDrainThread = null;
+            }
+        }
+
+        private TMessage poll() {
+            synchronized (mBuffer) {
+                TMessage message = mBuffer.poll();
+                if (null != message) {
+                    mBuffer.notifyAll();
+                }
+                return message;
+            }
+        }
+
+        /**
+         * Leaves the drain counter non-zero for good, so that no drain runs after a terminal signal.
+         */
+        private void terminate() {
+            mIsCancelled = true;
+            mPublisher.mSubscriptions.remove(this);
+        }
+
+        private void unsubscribe() {
+            SubscriptionToken token;
+            synchronized (this) {
+                token = mToken;
+                mToken = null;
+            }
+            if (null != token) {
+                mPublisher.mBus.unsubscribe(token);
+            }
+            mPublisher.mSubscriptions.remove(this);
+        }
+
+        private static void messageDropped(PublisherCallback callback) {
+            if (callback instanceof BackpressureCallback) {
+                ((BackpressureCallback) callback).messageDropped();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with power-of-two buckets.
+ * <p>
+ * Recording a value costs a couple of atomic additions and never allocates. Percentiles are
+ * therefore approximate: they are reported as the upper bound of the bucket they fall into, which
+ * is at most twice the actual value.
+ *
+ * @author robo-admin
+ */
+public final class Histogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    /**
+     * Bucket {@code i} counts values in {@code [2^(i-1), 2^i - 1]}; bucket 0 counts zeros.
+     */
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder mSum = new LongAdder();
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long value) {
+        record(value, 1);
+    }
+
+    void record(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.addAndGet(Math.min(BUCKET_COUNT - 1, BUCKET_COUNT - Long.numberOfLeadingZeros(value)), count);
+        mSum.add(value * count);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     */
+    void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.addAndGet(i, other.mBuckets.get(i));
+        }
+        mSum.add(other.getSum());
+        long otherMax = other.getMax();
+        long max;
+        while (otherMax > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets sum of recorded values.
+     */
+    public long getSum() {
+        return mSum.sum();
+    }
+
+    /**
+     * Gets the largest recorded value, or 0 if none has been recorded.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Gets mean of recorded values, or 0 if none has been recorded.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * Gets an upper bound of the value below which a specified percentage of recorded values fall.
+     *
+     * @param percentile Percentage, between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile");
+        }
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(getMax(), i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return 0;
+    }
+}
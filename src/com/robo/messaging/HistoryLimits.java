@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.TimeUnit;
+
+import com.robo.Guard;
+
+/**
+ * Limits for historic messages of one message type, enforced by {@link InMemoryMessageRepository}.
+ * <p>
+ * Messages older than the maximum age, counted from the time they were stored, expire first. Once
+ * the count or byte limit is exceeded, messages are then evicted in {@link EvictionOrder} until both
+ * hold again. Eviction happens while storing or reading messages of the same type and only ever looks at
+ * the messages about to be evicted, never at the whole history.
+ *
+ * @author robo-admin
+ */
+public final class HistoryLimits {
+
+    private static final MessageSizeEstimator NO_SIZE = new MessageSizeEstimator() {
+        @Override
+        public long estimateSize(Message message) {
+            return 0;
+        }
+    };
+
+    /**
+     * No limits at all: messages stay until removed. Declared after {@link #NO_SIZE}, which its
+     * constructor uses.
+     */
+    public static final HistoryLimits UNBOUNDED = new HistoryLimits(Integer.MAX_VALUE);
+
+    private final int mMaxCount;
+    private final long mMaxAgeNanos;
+    private final long mMaxBytes;
+    private final MessageSizeEstimator mSizeEstimator;
+    private final EvictionOrder mEvictionOrder;
+
+    /**
+     * @param maxCount Maximum number of messages kept.
+     */
+    public HistoryLimits(int maxCount) {
+        this(maxCount, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maxCount Maximum number of messages kept.
+     * @param maxAge   Maximum age of a message.
+     * @param unit     Time unit of {@code maxAge}.
+     */
+    public HistoryLimits(int maxCount, long maxAge, TimeUnit unit) {
+        this(maxCount, maxAge, unit, Long.MAX_VALUE, NO_SIZE, EvictionOrder.FIFO);
+    }
+
+    /**
+     * @param maxCount      Maximum number of messages kept.
+     * @param maxAge        Maximum age of a message.
+     * @param unit          Time unit of {@code maxAge}.
+     * @param maxBytes      Approximate number of bytes all kept messages may retain.
+     * @param sizeEstimator Estimates bytes retained by a message.
+     * @param evictionOrder Specifies which messages are evicted first.
+     */
+    public HistoryLimits(int maxCount, long maxAge, TimeUnit unit, long maxBytes, MessageSizeEstimator sizeEstimator,
+                         EvictionOrder evictionOrder) {
+        Guard.isNotNull(unit, IllegalArgumentException.class, "unit");
+        Guard.isNotNull(sizeEstimator, IllegalArgumentException.class, "sizeEstimator");
+        Guard.isNotNull(evictionOrder, IllegalArgumentException.class, "evictionOrder");
+        if (maxCount <= 0 || maxAge <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        mMaxCount = maxCount;
+        mMaxAgeNanos = unit.toNanos(maxAge);
+        mMaxBytes = maxBytes;
+        mSizeEstimator = sizeEstimator;
+        mEvictionOrder = evictionOrder;
+    }
+
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(mMaxAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public MessageSizeEstimator getSizeEstimator() {
+        return mSizeEstimator;
+    }
+
+    public EvictionOrder getEvictionOrder() {
+        return mEvictionOrder;
+    }
+
+    long getMaxAgeNanos() {
+        return mMaxAgeNanos;
+    }
+
+    boolean isAgeBounded() {
+        // TimeUnit.toNanos saturates at Long.MAX_VALUE.
+        return mMaxAgeNanos != Long.MAX_VALUE;
+    }
+}
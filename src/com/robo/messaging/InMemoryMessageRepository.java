@@ -2,74 +2,246 @@ package com.robo.messaging;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.robo.Guard;
+import com.robo.reflect.TypeUtils;
 
 /**
  * Provides implementation of MessageRepository, stores historic messages in memory.
+ * <p>
+ * Messages are kept per concrete type in linked hash maps, so storing and removing a
+ * message costs O(1) regardless of history size. An index from every super type and interface to
+ * the concrete types stored under it is maintained on store, so finding child messages only visits
+ * types that actually match.
+ * <p>
+ * History can be bounded with {@link HistoryLimits}, either by default for all message types or per
+ * concrete message type. Messages beyond the limits are evicted while storing or reading messages of
+ * the same type, a few at a time.
  *
  * @author robo-admin
  */
 public class InMemoryMessageRepository implements MessageRepository {
 
-    private ConcurrentHashMap<Class<?>, List<Message>> mMessages;
+    private ConcurrentHashMap<Class<?>, MessageHistory> mMessages;
+    private ConcurrentHashMap<Class<?>, Set<Class<?>>> mSubTypes;
+    private ConcurrentHashMap<Class<?>, HistoryLimits> mLimits;
+    private HistoryLimits mDefaultLimits;
+    private AtomicLong mEvictionCount;
+    /**
+     * Guards creating the history of a new type together with indexing it, against
+     * {@link #removeAll()} and {@link #setLimits(Class, HistoryLimits)}. Storing to an existing
+     * history does not take it.
+     */
+    private final Object mIndexLock = new Object();
 
     public InMemoryMessageRepository() {
+        this(HistoryLimits.UNBOUNDED);
+    }
+
+    /**
+     * @param defaultLimits Limits for message types that have no limits of their own.
+     */
+    public InMemoryMessageRepository(HistoryLimits defaultLimits) {
+        Guard.isNotNull(defaultLimits, IllegalArgumentException.class, "defaultLimits");
         mMessages = new ConcurrentHashMap<>();
+        mSubTypes = new ConcurrentHashMap<>();
+        mLimits = new ConcurrentHashMap<>();
+        mDefaultLimits = defaultLimits;
+        mEvictionCount = new AtomicLong();
+    }
+
+    /**
+     * Sets limits for historic messages of a concrete message type. Messages of that type already
+     * stored are trimmed right away.
+     */
+    public void setLimits(Class<? extends Message> messageType, HistoryLimits limits) {
+        Guard.isNotNull(limits, IllegalArgumentException.class, "limits");
+        synchronized (mIndexLock) {
+            mLimits.put(messageType, limits);
+            MessageHistory messages = mMessages.get(messageType);
+            if (null != messages) {
+                messages.setLimits(limits);
+            }
+        }
+    }
+
+    /**
+     * Indicates total number of messages evicted because of history limits.
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Indicates number of messages of a concrete type evicted because of history limits since the
+     * history was last cleared.
+     */
+    public long getEvictionCount(Class<? extends Message> messageType) {
+        MessageHistory messages = mMessages.get(messageType);
+        return null == messages ? 0 : messages.getEvictionCount();
     }
 
     @Override
     public int size() {
         int size = 0;
-        for (List<Message> messages : mMessages.values()) {
+        for (MessageHistory messages : mMessages.values()) {
             size += messages.size();
         }
         return size;
     }
 
+    @Override
+    public int count(Class<? extends Message> messageType) {
+        MessageHistory messages = mMessages.get(messageType);
+        return null == messages ? 0 : messages.size();
+    }
+
     @Override
     public void store(Message message) {
-        Class<?> messageType = message.getClass();
-        mMessages.putIfAbsent(messageType, new ArrayList<Message>());
-        List<Message> messages = mMessages.get(messageType);
-        synchronized (messages) {
-            if (!messages.contains(message)) {
-                messages.add(message);
+        getOrCreateMessages(message.getClass()).add(message);
+    }
+
+    @Override
+    public void storeAll(Collection<? extends Message> messages) {
+        Map<Class<?>, List<Message>> messagesByType = new LinkedHashMap<>();
+        for (Message message : messages) {
+            List<Message> batch = messagesByType.get(message.getClass());
+            if (null == batch) {
+                batch = new ArrayList<>();
+                messagesByType.put(message.getClass(), batch);
             }
+            batch.add(message);
+        }
+        for (Map.Entry<Class<?>, List<Message>> entry : messagesByType.entrySet()) {
+            getOrCreateMessages(entry.getKey()).addAll(entry.getValue());
         }
     }
 
     @Override
     public boolean remove(Message message) {
-        Class<?> messageType = message.getClass();
-        mMessages.putIfAbsent(messageType, new ArrayList<Message>());
-        List<Message> messages = mMessages.get(messageType);
-        synchronized (messages) {
-            boolean success = messages.remove(message);
-            if (success && messages.isEmpty()) {
-                mMessages.remove(messageType);
-            }
-            return success;
-        }
+        MessageHistory messages = mMessages.get(message.getClass());
+        return null != messages && messages.remove(message);
     }
 
     @Override
     public void removeAll() {
-        mMessages.clear();
+        synchronized (mIndexLock) {
+            mMessages.clear();
+            mSubTypes.clear();
+        }
     }
 
     @Override
     public Collection<Message> find(Class<? extends Message> contractType, boolean includeChildren) {
         Collection<Message> messages = new ArrayList<>();
-        List<Message> byContractTypeMessages = mMessages.get(contractType);
-        if (null != byContractTypeMessages) {
-            messages.addAll(byContractTypeMessages);
+        addMessages(contractType, messages);
+        if (includeChildren) {
+            Set<Class<?>> subTypes = mSubTypes.get(contractType);
+            if (null != subTypes) {
+                for (Class<?> subType : subTypes) {
+                    if (!subType.equals(contractType)) {
+                        addMessages(subType, messages);
+                    }
+                }
+            }
         }
+        return messages;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cursor reads the live history of one concrete type after another, a chunk at a time, and
+     * never copies a whole history.
+     */
+    @Override
+    public Iterator<Message> iterate(Class<? extends Message> contractType, boolean includeChildren) {
+        final List<Class<?>> messageTypes = new ArrayList<>();
+        messageTypes.add(contractType);
         if (includeChildren) {
-            for (Map.Entry<Class<?>, List<Message>> entry : mMessages.entrySet()) {
-                if (contractType.isAssignableFrom(entry.getKey()) && !entry.getKey().equals(contractType)) {
-                    messages.addAll(entry.getValue());
+            Set<Class<?>> subTypes = mSubTypes.get(contractType);
+            if (null != subTypes) {
+                for (Class<?> subType : subTypes) {
+                    if (!subType.equals(contractType)) {
+                        messageTypes.add(subType);
+                    }
+                }
+            }
+        }
+        return new Iterator<Message>() {
+
+            private int mNextTypeIndex;
+            private Iterator<Message> mCursor = Collections.<Message>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!mCursor.hasNext() && mNextTypeIndex < messageTypes.size()) {
+                    MessageHistory messages = mMessages.get(messageTypes.get(mNextTypeIndex++));
+                    if (null != messages) {
+                        mCursor = messages.cursor();
+                    }
+                }
+                return mCursor.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return mCursor.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void addMessages(Class<?> messageType, Collection<Message> result) {
+        MessageHistory messages = mMessages.get(messageType);
+        if (null != messages) {
+            messages.copyTo(result);
+        }
+    }
+
+    /**
+     * Gets messages of a concrete type. The first time a type is seen, it is also registered in the
+     * index under all of its super types and interfaces, under the same lock {@link #removeAll()}
+     * clears both with, so a type can never end up with a history but without an index entry.
+     */
+    private MessageHistory getOrCreateMessages(Class<?> messageType) {
+        MessageHistory messages = mMessages.get(messageType);
+        if (null == messages) {
+            synchronized (mIndexLock) {
+                messages = mMessages.get(messageType);
+                if (null == messages) {
+                    HistoryLimits limits = mLimits.get(messageType);
+                    messages = new MessageHistory(null == limits ? mDefaultLimits : limits, mEvictionCount);
+                    mMessages.put(messageType, messages);
+                    indexSubType(messageType);
                 }
             }
         }
         return messages;
     }
+
+    private void indexSubType(Class<?> messageType) {
+        List<Class<?>> superTypes = new ArrayList<>();
+        TypeUtils.fetchAllSuperTypes(messageType, superTypes);
+        TypeUtils.fetchAllInterfaces(messageType, superTypes);
+        for (Class<?> superType : superTypes) {
+            Set<Class<?>> subTypes = mSubTypes.get(superType);
+            if (null == subTypes) {
+                Set<Class<?>> created = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+                subTypes = mSubTypes.putIfAbsent(superType, created);
+                if (null == subTypes) {
+                    subTypes = created;
+                }
+            }
+            subTypes.add(messageType);
+        }
+    }
 }
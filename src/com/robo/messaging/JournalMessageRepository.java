@@ -0,0 +1,549 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.robo.Guard;
+
+/**
+ * Provides implementation of MessageRepository that persists historic messages in an append-only
+ * journal of memory-mapped segment files, so history survives a restart.
+ * <p>
+ * Every stored message is appended as a record through a {@link MessageSerializer}; removing a
+ * message appends a tombstone that refers to it by record id. Appending is a copy into a mapped
+ * buffer, with no system call, and a new segment is mapped whenever the current one is full.
+ * Reads are served from an {@link InMemoryMessageRepository} that is rebuilt when the repository is
+ * opened: the segments are scanned sequentially for record ids and tombstones first, and only the
+ * messages still live at the end are deserialized.
+ * <p>
+ * Once removed messages outweigh live ones, the journal is compacted on a background thread: live
+ * messages are written to fresh segments and the old segments are deleted. Stores and removals go
+ * on while the fresh segments are written, and the old segments are only deleted after the new
+ * ones are forced to the storage device, so a crash during compaction loses nothing.
+ *
+ * @author robo-admin
+ */
+public class JournalMessageRepository implements MessageRepository, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_TOMBSTONE = 2;
+    /**
+     * Record layout: int length of the rest of the record, byte kind, long id, then the serialized
+     * message for message records. A length of 0 marks the end of the written part of a segment.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+    private static final int END_MARKER_SIZE = 4;
+    private static final int COMPACTION_THRESHOLD = 1024;
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeType = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeType.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeType.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            // Runtime cannot unmap explicitly; mappings are released once their buffers are collected.
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final File mDirectory;
+    private final MessageSerializer mSerializer;
+    private final int mSegmentSize;
+    private final InMemoryMessageRepository mMessages;
+    private final Map<Message, Long> mIds;
+    private final List<Segment> mSegments;
+    private final Executor mCompactionExecutor;
+    private Segment mCurrent;
+    private int mNextSegmentNumber;
+    private long mNextId;
+    private long mDeadRecords;
+    private boolean mIsCompactionScheduled;
+    private boolean mIsCompacting;
+    /**
+     * Incremented by {@link #removeAll()}, so a compaction running meanwhile discards what it wrote.
+     */
+    private int mGeneration;
+
+    public JournalMessageRepository(File directory, MessageSerializer serializer) throws IOException {
+        this(directory, serializer, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public JournalMessageRepository(File directory, MessageSerializer serializer, int segmentSize) throws IOException {
+        Guard.isNotNull(directory, IllegalArgumentException.class, "directory");
+        Guard.isNotNull(serializer, IllegalArgumentException.class, "serializer");
+        if (segmentSize <= RECORD_HEADER_SIZE + END_MARKER_SIZE) {
+            throw new IllegalArgumentException("segmentSize");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        mDirectory = directory;
+        mSerializer = serializer;
+        mSegmentSize = segmentSize;
+        mMessages = new InMemoryMessageRepository();
+        mIds = new LinkedHashMap<>();
+        mSegments = new ArrayList<>();
+        mCompactionExecutor = newCompactionExecutor();
+        replay();
+    }
+
+    @Override
+    public int size() {
+        return mMessages.size();
+    }
+
+    @Override
+    public int count(Class<? extends Message> messageType) {
+        return mMessages.count(messageType);
+    }
+
+    @Override
+    public synchronized void store(Message message) {
+        if (!mIds.containsKey(message)) {
+            long id = mNextId++;
+            append(RECORD_MESSAGE, id, mSerializer.serialize(message));
+            mIds.put(message, id);
+            mMessages.store(message);
+        }
+    }
+
+    @Override
+    public synchronized void storeAll(Collection<? extends Message> messages) {
+        for (Message message : messages) {
+            store(message);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(Message message) {
+        Long id = mIds.remove(message);
+        if (null == id) {
+            return false;
+        }
+        append(RECORD_TOMBSTONE, id, null);
+        mMessages.remove(message);
+        // Both the message record and its tombstone are now dead weight.
+        mDeadRecords += 2;
+        scheduleCompactionIfNeeded();
+        return true;
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        mGeneration++;
+        mIds.clear();
+        mMessages.removeAll();
+        mDeadRecords = 0;
+        deleteSegments(mSegments);
+        mSegments.clear();
+        mCurrent = null;
+    }
+
+    @Override
+    public Collection<Message> find(Class<? extends Message> contractType, boolean includeChildren) {
+        return mMessages.find(contractType, includeChildren);
+    }
+
+    @Override
+    public Iterator<Message> iterate(Class<? extends Message> contractType, boolean includeChildren) {
+        return mMessages.iterate(contractType, includeChildren);
+    }
+
+    /**
+     * Flushes appended records of every segment written since the last sync to the storage device.
+     * Segments that are full are unmapped once flushed.
+     */
+    public synchronized void sync() {
+        for (Segment segment : mSegments) {
+            if (segment.mIsDirty) {
+                segment.mBuffer.force();
+                segment.mIsDirty = false;
+            }
+            if (segment != mCurrent) {
+                release(segment);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal so it only contains live messages. Normally triggered automatically.
+     * <p>
+     * Live messages are serialized and written to fresh segments without holding the lock that
+     * stores and removals take; it is only taken briefly to snapshot live messages and to swap the
+     * segments at the end.
+     */
+    public void compact() {
+        List<Map.Entry<Message, Long>> snapshot;
+        int generation;
+        synchronized (this) {
+            mIsCompactionScheduled = false;
+            if (mIsCompacting) {
+                return;
+            }
+            mIsCompacting = true;
+            snapshot = new ArrayList<Map.Entry<Message, Long>>(mIds.size());
+            for (Map.Entry<Message, Long> entry : mIds.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            generation = mGeneration;
+        }
+        try {
+            // Serializing is the expensive part, so it runs while stores and removals go on.
+            Map<Long, byte[]> payloads = new HashMap<>();
+            for (Map.Entry<Message, Long> entry : snapshot) {
+                payloads.put(entry.getValue(), mSerializer.serialize(entry.getKey()));
+            }
+            compact(generation, payloads);
+        } finally {
+            synchronized (this) {
+                mIsCompacting = false;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        for (Segment segment : mSegments) {
+            release(segment);
+        }
+        mCurrent = null;
+        if (mCompactionExecutor instanceof ExecutorService) {
+            ((ExecutorService) mCompactionExecutor).shutdown();
+        }
+    }
+
+    /**
+     * Writes live messages to fresh segments, then swaps them in for the old ones.
+     *
+     * @param payloads Serialized messages by record id, taken from a snapshot of live messages.
+     */
+    private void compact(int generation, Map<Long, byte[]> payloads) {
+        List<Long> ids;
+        List<byte[]> records;
+        List<Segment> oldSegments;
+        long deadRecords;
+        int firstSegmentNumber;
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            ids = new ArrayList<>(mIds.size());
+            records = new ArrayList<>(mIds.size());
+            for (Map.Entry<Message, Long> entry : mIds.entrySet()) {
+                byte[] payload = payloads.get(entry.getValue());
+                // Stored after the snapshot, so only in the old segments.
+                ids.add(entry.getValue());
+                records.add(null == payload ? mSerializer.serialize(entry.getKey()) : payload);
+            }
+            // Fresh segments take the next numbers, so they replay after the old segments and before
+            // the segments that stores and removals continue to append to meanwhile.
+            firstSegmentNumber = mNextSegmentNumber;
+            mNextSegmentNumber += countSegments(records);
+            mCurrent = null;
+            oldSegments = new ArrayList<>(mSegments);
+            deadRecords = mDeadRecords;
+        }
+        List<Segment> segments = new ArrayList<>();
+        try {
+            Segment segment = null;
+            for (int i = 0; i < records.size(); i++) {
+                if (null == segment || !fits(segment, records.get(i))) {
+                    segment = newSegment(firstSegmentNumber + segments.size());
+                    segments.add(segment);
+                }
+                write(segment.mBuffer, RECORD_MESSAGE, ids.get(i), records.get(i));
+            }
+            for (Segment written : segments) {
+                written.mBuffer.force();
+                release(written);
+            }
+        } catch (RuntimeException e) {
+            deleteSegments(segments);
+            throw e;
+        }
+        synchronized (this) {
+            if (generation != mGeneration) {
+                deleteSegments(segments);
+                return;
+            }
+            mSegments.removeAll(oldSegments);
+            mSegments.addAll(0, segments);
+            deleteSegments(oldSegments);
+            mDeadRecords -= deadRecords;
+        }
+    }
+
+    private void append(byte kind, long id, byte[] payload) {
+        int payloadSize = null == payload ? 0 : payload.length;
+        // Leave room for the end marker so replay always finds one.
+        if (RECORD_HEADER_SIZE + payloadSize + END_MARKER_SIZE > mSegmentSize) {
+            throw new IllegalArgumentException("Message of " + payloadSize + " bytes does not fit in a journal segment");
+        }
+        if (null == mCurrent || !fits(mCurrent, payload)) {
+            mCurrent = newSegment(mNextSegmentNumber++);
+            mSegments.add(mCurrent);
+        }
+        write(mCurrent.mBuffer, kind, id, payload);
+        mCurrent.mIsDirty = true;
+    }
+
+    /**
+     * Number of segments needed to write message records with the specified payloads.
+     */
+    private int countSegments(List<byte[]> payloads) {
+        int segments = 0;
+        int remaining = 0;
+        for (byte[] payload : payloads) {
+            int recordSize = RECORD_HEADER_SIZE + payload.length;
+            if (segments == 0 || remaining < recordSize + END_MARKER_SIZE) {
+                segments++;
+                remaining = mSegmentSize;
+            }
+            remaining -= recordSize;
+        }
+        return segments;
+    }
+
+    private static boolean fits(Segment segment, byte[] payload) {
+        int payloadSize = null == payload ? 0 : payload.length;
+        return segment.mBuffer.remaining() >= RECORD_HEADER_SIZE + payloadSize + END_MARKER_SIZE;
+    }
+
+    private static void write(MappedByteBuffer buffer, byte kind, long id, byte[] payload) {
+        // The length goes in last, so a record cut short by a crash still reads as the end of the segment.
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.put(kind);
+        buffer.putLong(id);
+        if (null != payload) {
+            buffer.put(payload);
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    private Segment newSegment(int number) {
+        File file = new File(mDirectory, SEGMENT_PREFIX + String.format(Locale.US, "%010d", number) + SEGMENT_SUFFIX);
+        try {
+            return new Segment(file, map(file));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create journal segment " + file, e);
+        }
+    }
+
+    private MappedByteBuffer map(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // The mapping stays valid after the channel is closed.
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void replay() throws IOException {
+        File[] files = mDirectory.listFiles();
+        List<File> segmentFiles = new ArrayList<>();
+        if (null != files) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segmentFiles.add(file);
+                }
+            }
+        }
+        // Zero-padded numbers, so name order is creation order.
+        Collections.sort(segmentFiles);
+        Map<Long, RecordPosition> positionsById = new LinkedHashMap<>();
+        long records = 0;
+        for (File file : segmentFiles) {
+            Segment segment = new Segment(file, map(file));
+            records += index(segment, positionsById);
+            mSegments.add(segment);
+            mCurrent = segment;
+            mNextSegmentNumber = segmentNumber(file) + 1;
+        }
+        for (Map.Entry<Long, RecordPosition> entry : positionsById.entrySet()) {
+            mIds.put(entry.getValue().read(mSerializer), entry.getKey());
+        }
+        mMessages.storeAll(mIds.keySet());
+        mDeadRecords = records - mIds.size();
+        // Only the last segment is appended to.
+        for (Segment segment : mSegments) {
+            if (segment != mCurrent) {
+                release(segment);
+            }
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Indexes records of a segment by id without deserializing them, and leaves the buffer
+     * positioned at its end marker.
+     *
+     * @return Number of records read.
+     */
+    private long index(Segment segment, Map<Long, RecordPosition> positionsById) {
+        MappedByteBuffer buffer = segment.mBuffer;
+        long records = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            buffer.mark();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.reset();
+                break;
+            }
+            byte kind = buffer.get();
+            long id = buffer.getLong();
+            mNextId = Math.max(mNextId, id + 1);
+            if (kind == RECORD_MESSAGE) {
+                int payloadSize = length - (RECORD_HEADER_SIZE - 4);
+                positionsById.put(id, new RecordPosition(buffer, buffer.position(), payloadSize));
+                buffer.position(buffer.position() + payloadSize);
+            } else {
+                positionsById.remove(id);
+            }
+            records++;
+        }
+        return records;
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (!mIsCompactionScheduled && !mIsCompacting && mDeadRecords >= COMPACTION_THRESHOLD && mDeadRecords > mIds.size()) {
+            mIsCompactionScheduled = true;
+            mCompactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (RuntimeException e) {
+                        // Journal stays as it is; compaction is retried once more records die.
+                        synchronized (JournalMessageRepository.this) {
+                            mIsCompactionScheduled = false;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Unmaps segments before deleting them, as some platforms cannot delete a mapped file.
+     */
+    private static void deleteSegments(List<Segment> segments) {
+        for (Segment segment : segments) {
+            release(segment);
+            segment.mFile.delete();
+        }
+    }
+
+    /**
+     * Unmaps a segment. Its buffer must not be used afterwards.
+     */
+    private static void release(Segment segment) {
+        MappedByteBuffer buffer = segment.mBuffer;
+        if (null == buffer) {
+            return;
+        }
+        segment.mBuffer = null;
+        if (null != INVOKE_CLEANER) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (Exception e) {
+                // Released once the buffer is collected.
+            }
+        }
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static ExecutorService newCompactionExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MessageBus-JournalCompaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A segment file and its mapping, which is null once the segment is no longer appended to.
+     */
+    private static final class Segment {
+        final File mFile;
+        MappedByteBuffer mBuffer;
+        boolean mIsDirty;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            mFile = file;
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Where the payload of a message record is, so only live messages get deserialized on replay.
+     */
+    private static final class RecordPosition {
+        final ByteBuffer mBuffer;
+        final int mOffset;
+        final int mSize;
+
+        RecordPosition(ByteBuffer buffer, int offset, int size) {
+            mBuffer = buffer;
+            mOffset = offset;
+            mSize = size;
+        }
+
+        Message read(MessageSerializer serializer) {
+            byte[] payload = new byte[mSize];
+            ByteBuffer duplicate = mBuffer.duplicate();
+            duplicate.position(mOffset);
+            duplicate.get(payload);
+            return serializer.deserialize(payload);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Extracts a key, such as an entity id, from the content of a message.
+ *
+ * @param <TContent> Type of message content.
+ * @author robo-admin
+ */
+public interface KeyExtractor<TContent> {
+
+    /**
+     * Extracts the key.
+     *
+     * @param content Content of a message, as returned by {@link Message#getContent()}.
+     * @return The key. Keys are compared with {@code equals}.
+     */
+    Object extractKey(TContent content);
+}
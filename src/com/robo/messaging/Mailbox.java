@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-subscription mailbox for asynchronous delivery.
+ * <p>
+ * Publishers append to a lock-free multi-producer single-consumer queue. The publisher that moves
+ * the mailbox from empty to non-empty schedules a single drain task on the executor, which then
+ * delivers messages in a loop until the mailbox is empty again. This keeps delivery to one
+ * subscriber in FIFO order and turns a burst of messages into a single executor submission.
+ * <p>
+ * A mailbox may be bounded. Once it holds {@code capacity} messages, further messages are handled
+ * according to its {@link OverflowPolicy}. An empty mailbox always accepts an entry, so a batch
+ * larger than the capacity is still delivered.
+ * <p>
+ * {@link OverflowPolicy#DROP_OLDEST} evicts queued messages one at a time when a message is posted,
+ * so the mailbox never holds more than its capacity, except for an entry already being delivered;
+ * a batch larger than the capacity keeps only its newest messages.
+ * Producers and the drain of such a mailbox link and unlink entries under a lock private to the
+ * mailbox; the other policies stay lock-free.
+ *
+ * @param <TMessage> Type of message.
+ * @author robo-admin
+ */
+final class Mailbox<TMessage extends Message> implements Runnable {
+
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final Executor mExecutor;
+    private final int mCapacity;
+    private final OverflowPolicy mOverflowPolicy;
+    private final AtomicReference<Node<TMessage>> mTail;
+    private Node<TMessage> mHead;
+    /**
+     * Number of messages appended but not yet delivered. Also serves as the drain ownership flag:
+     * whoever moves it away from zero is responsible for draining.
+     */
+    private final AtomicInteger mSize;
+    /**
+     * Whether queued messages are evicted by publishers, see {@link #evictAndReserve(Node, PublisherCallback)}.
+     */
+    private final boolean mEvictsOldest;
+    private final Object mHeadLock = new Object();
+    private final Object mRoomLock = new Object();
+    private volatile int mWaitingPublishers;
+    private final AtomicReference<Thread> mDrainThread;
+
+    Mailbox(Executor executor) {
+        this(executor, UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    Mailbox(Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+        mExecutor = executor;
+        mCapacity = capacity;
+        mOverflowPolicy = overflowPolicy;
+        mHead = new Node<>(null, null, null);
+        mTail = new AtomicReference<>(mHead);
+        mSize = new AtomicInteger();
+        mEvictsOldest = capacity != UNBOUNDED && overflowPolicy == OverflowPolicy.DROP_OLDEST;
+        mDrainThread = new AtomicReference<>();
+    }
+
+    /**
+     * Appends a message and schedules a drain if the mailbox was empty.
+     *
+     * @param drainInline If true, a drain that this call is responsible for runs on the current
+     *                    thread instead of being submitted to the executor.
+     * @param callback    Publisher's callback for reporting overflow outcomes, may be null.
+     */
+    void post(Subscriber<TMessage> subscriber, TMessage message, boolean drainInline, PublisherCallback callback) {
+        append(new Node<>(subscriber, message, null), drainInline, callback);
+    }
+
+    /**
+     * Appends a batch of messages as a single entry and schedules a drain if the mailbox was empty.
+     */
+    void postAll(Subscriber<TMessage> subscriber, List<TMessage> messages, boolean drainInline, PublisherCallback callback) {
+        if (!messages.isEmpty()) {
+            append(new Node<>(subscriber, null, messages), drainInline, callback);
+        }
+    }
+
+    /**
+     * Indicates current number of messages waiting in this mailbox.
+     */
+    int size() {
+        return mSize.get();
+    }
+
+    @Override
+    public void run() {
+        Thread currentThread = Thread.currentThread();
+        mDrainThread.set(currentThread);
+        try {
+            drain();
+        } finally {
+            // A drain scheduled right after this one emptied the mailbox may already own it.
+            mDrainThread.compareAndSet(currentThread, null);
+        }
+    }
+
+    private void drain() {
+        Node<TMessage> node;
+        do {
+            node = take();
+            try {
+                node.deliver();
+            } catch (RuntimeException | Error e) {
+                // Hand the rest of the mailbox to a fresh drain before propagating, so that one
+                // failing message does not leave the mailbox stuck.
+                if (release(node.mWeight) != 0) {
+                    mExecutor.execute(this);
+                }
+                throw e;
+            }
+        } while (release(node.mWeight) != 0);
+    }
+
+    private void append(Node<TMessage> node, boolean drainInline, PublisherCallback callback) {
+        int size;
+        if (mCapacity == UNBOUNDED) {
+            size = mSize.getAndAdd(node.mWeight);
+            link(node);
+        } else if (mEvictsOldest) {
+            synchronized (mHeadLock) {
+                size = evictAndReserve(node, callback);
+                link(node);
+            }
+        } else {
+            size = reserve(node.mWeight, callback);
+            if (size < 0) {
+                return;
+            }
+            link(node);
+        }
+        if (size == 0) {
+            if (drainInline) {
+                run();
+            } else {
+                mExecutor.execute(this);
+            }
+        }
+    }
+
+    private void link(Node<TMessage> node) {
+        Node<TMessage> previous = mTail.getAndSet(node);
+        previous.mNext = node;
+    }
+
+    /**
+     * Makes room for an entry of a {@link OverflowPolicy#DROP_OLDEST} mailbox by evicting queued
+     * messages oldest first, then the oldest messages of the entry itself if it is a batch. Never
+     * evicts the entry being delivered or the newest message. Called under {@link #mHeadLock}.
+     *
+     * @return The size before the reservation.
+     */
+    private int evictAndReserve(Node<TMessage> node, PublisherCallback callback) {
+        int evicted = 0;
+        while (mSize.get() - evicted + node.mWeight > mCapacity) {
+            if (evictOldest()) {
+                evicted++;
+            } else if (node.mWeight > 1) {
+                node.dropFirst();
+            } else {
+                break;
+            }
+            messageDropped(callback);
+        }
+        // A single update, so that the size cannot pass through zero while a drain is scheduled.
+        return mSize.getAndAdd(node.mWeight - evicted);
+    }
+
+    /**
+     * Evicts the oldest queued message. Called under {@link #mHeadLock}, so every reserved entry
+     * is linked and no producer moves the tail concurrently.
+     *
+     * @return false if no message is queued.
+     */
+    private boolean evictOldest() {
+        Node<TMessage> oldest = mHead.mNext;
+        if (null == oldest) {
+            return false;
+        }
+        if (oldest.mWeight > 1) {
+            oldest.dropFirst();
+            return true;
+        }
+        Node<TMessage> next = oldest.mNext;
+        mHead.mNext = next;
+        if (null == next) {
+            mTail.set(mHead);
+        }
+        oldest.clear();
+        return true;
+    }
+
+    /**
+     * Reserves room for an entry of a bounded mailbox, applying the overflow policy if it is full.
+     *
+     * @return The size before the reservation, or -1 if the entry must be dropped.
+     */
+    private int reserve(int weight, PublisherCallback callback) {
+        boolean backpressureApplied = false;
+        while (true) {
+            int size = mSize.get();
+            if (size == 0 || size + weight <= mCapacity) {
+                if (mSize.compareAndSet(size, size + weight)) {
+                    if (backpressureApplied && callback instanceof BackpressureCallback) {
+                        ((BackpressureCallback) callback).backpressureApplied();
+                    }
+                    return size;
+                }
+                continue;
+            }
+            switch (mOverflowPolicy) {
+                case DROP_NEWEST:
+                    messageDropped(callback);
+                    return -1;
+                case FAIL:
+                    throw new IllegalStateException("Subscriber queue is full, capacity: " + mCapacity);
+                default: // case BLOCK:
+                    if (Thread.currentThread() == mDrainThread.get()) {
+                        // Publishing to ourselves from inside delivery; waiting would never end.
+                        return mSize.getAndAdd(weight);
+                    }
+                    backpressureApplied = true;
+                    awaitRoom(weight);
+                    break;
+            }
+        }
+    }
+
+    private void awaitRoom(int weight) {
+        synchronized (mRoomLock) {
+            mWaitingPublishers++;
+            try {
+                while (true) {
+                    int size = mSize.get();
+                    if (size == 0 || size + weight <= mCapacity) {
+                        return;
+                    }
+                    mRoomLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for subscriber queue", e);
+            } finally {
+                mWaitingPublishers--;
+            }
+        }
+    }
+
+    private int release(int weight) {
+        int size = mSize.addAndGet(-weight);
+        if (mWaitingPublishers > 0) {
+            synchronized (mRoomLock) {
+                mRoomLock.notifyAll();
+            }
+        }
+        return size;
+    }
+
+    private static void messageDropped(PublisherCallback callback) {
+        if (callback instanceof BackpressureCallback) {
+            ((BackpressureCallback) callback).messageDropped();
+        }
+    }
+
+    /**
+     * Takes the next node to deliver. Only called by the drain owner after the size has been
+     * observed non-zero, so a node is guaranteed to have been reserved; it may just not be linked yet.
+     */
+    private Node<TMessage> take() {
+        if (mEvictsOldest) {
+            // Producers link under the lock, so the node is linked once the lock is acquired.
+            synchronized (mHeadLock) {
+                return advance();
+            }
+        }
+        return advance();
+    }
+
+    private Node<TMessage> advance() {
+        Node<TMessage> next;
+        while (null == (next = mHead.mNext)) {
+            Thread.yield();
+        }
+        mHead.mNext = null;
+        mHead = next;
+        return next;
+    }
+
+    private static final class Node<TMessage extends Message> {
+        private Subscriber<TMessage> mSubscriber;
+        private TMessage mMessage;
+        private List<TMessage> mMessages;
+        /**
+         * Number of leading batch messages evicted by {@link OverflowPolicy#DROP_OLDEST}.
+         */
+        private int mOffset;
+        int mWeight;
+        volatile Node<TMessage> mNext;
+
+        Node(Subscriber<TMessage> subscriber, TMessage message, List<TMessage> messages) {
+            mSubscriber = subscriber;
+            mMessage = message;
+            mMessages = messages;
+            mWeight = null == messages ? 1 : messages.size();
+        }
+
+        void deliver() {
+            Subscriber<TMessage> subscriber = mSubscriber;
+            TMessage message = mMessage;
+            List<TMessage> messages = mMessages;
+            int offset = mOffset;
+            clear();
+            if (null == messages) {
+                subscriber.receive(message);
+            } else {
+                Subscription.receiveAll(subscriber, 0 == offset ? messages : messages.subList(offset, messages.size()));
+            }
+        }
+
+        /**
+         * Evicts the oldest message of a batch holding more than one.
+         */
+        void dropFirst() {
+            mOffset++;
+            mWeight--;
+        }
+
+        /**
+         * The node stays reachable as the queue stub, so release what it holds.
+         */
+        void clear() {
+            mSubscriber = null;
+            mMessage = null;
+            mMessages = null;
+        }
+    }
+}
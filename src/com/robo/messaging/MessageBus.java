@@ -15,6 +15,11 @@
  */
 package com.robo.messaging;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Intended for exchanging messages.
  *
@@ -93,6 +98,100 @@ public interface MessageBus {
     <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages,
                                                            boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive);
 
+    /**
+     * Subscribes a subscriber to receive messages of a specified type.
+     *
+     * @param subscriber           The receiver.
+     * @param priority             Indicates priority of this subscriber. The lower number, the sooner this
+     *                             subscriber receives messages than the other.
+     * @param acceptsChildMessages Flag, determines if this subscriber also accepts messages of children type.
+     * @param receiveHistoricMessages Flag, indicates if the subscriber also wants to receive historic messages.
+     * @param threadOption         Specifies delivery thread.
+     * @param keepSubscriberAlive  If true, the message bus will keep a strong reference to the
+     *                             subscriber until the subscriber is unsubscribed.
+     * @param capacity             Maximum number of messages waiting for delivery to this subscriber. Only applies
+     *                             to {@link ThreadOption#BACKGROUND BACKGROUND} delivery.
+     * @param overflowPolicy       Specifies what happens to a message published while the queue is full.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages,
+                                                           boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive,
+                                                           int capacity, OverflowPolicy overflowPolicy);
+
+    /**
+     * Subscribes a subscriber to receive only the latest message per key.
+     * <p>
+     * While the subscriber is busy, a newly published message replaces any message with the same key
+     * that is still waiting for delivery. Messages waiting are handed over together, so a
+     * {@link BatchSubscriber} receives them in a single call.
+     *
+     * @param subscriber              The receiver.
+     * @param priority                Indicates priority of this subscriber. The lower number, the sooner this
+     *                                subscriber receives messages than the other.
+     * @param acceptsChildMessages    Flag, determines if this subscriber also accepts messages of children type.
+     * @param receiveHistoricMessages Flag, indicates if the subscriber also wants to receive historic messages.
+     * @param threadOption            Specifies delivery thread.
+     * @param keepSubscriberAlive     If true, the message bus will keep a strong reference to the
+     *                                subscriber until the subscriber is unsubscribed.
+     * @param conflationKeyExtractor  Extracts the key messages are conflated by from message content.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages,
+                                                           boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive,
+                                                           KeyExtractor<?> conflationKeyExtractor);
+
+    /**
+     * Subscribes a subscriber to receive only messages carrying a specified routing key.
+     * <p>
+     * Routing keys are extracted from messages by the extractor registered with
+     * {@link #setRoutingKeyExtractor(Class, KeyExtractor)}. A message reaches the subscribers whose
+     * key equals its own and the subscribers subscribed without a key; subscribers for other keys
+     * cost nothing. An extractor must be registered for the subscribed type or one of its super
+     * types before subscribing with a key.
+     *
+     * @param subscriber              The receiver.
+     * @param routingKey              The key. Keys are compared with {@code equals}.
+     * @param priority                Indicates priority of this subscriber. The lower number, the sooner this
+     *                                subscriber receives messages than the other.
+     * @param acceptsChildMessages    Flag, determines if this subscriber also accepts messages of children type.
+     * @param receiveHistoricMessages Flag, indicates if the subscriber also wants to receive historic messages
+     *                                carrying its key.
+     * @param threadOption            Specifies delivery thread.
+     * @param keepSubscriberAlive     If true, the message bus will keep a strong reference to the
+     *                                subscriber until the subscriber is unsubscribed.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     * @throws IllegalStateException If no routing key extractor is registered for the subscribed type.
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority,
+                                                           boolean acceptsChildMessages, boolean receiveHistoricMessages,
+                                                           ThreadOption threadOption, boolean keepSubscriberAlive);
+
+    /**
+     * Subscribes a subscriber to receive only messages carrying a specified routing key, through a
+     * bounded queue.
+     *
+     * @param subscriber              The receiver.
+     * @param routingKey              The key. Keys are compared with {@code equals}.
+     * @param priority                Indicates priority of this subscriber. The lower number, the sooner this
+     *                                subscriber receives messages than the other.
+     * @param acceptsChildMessages    Flag, determines if this subscriber also accepts messages of children type.
+     * @param receiveHistoricMessages Flag, indicates if the subscriber also wants to receive historic messages
+     *                                carrying its key.
+     * @param threadOption            Specifies delivery thread.
+     * @param keepSubscriberAlive     If true, the message bus will keep a strong reference to the
+     *                                subscriber until the subscriber is unsubscribed.
+     * @param capacity                Maximum number of messages waiting for delivery to this subscriber. Only applies
+     *                                to {@link ThreadOption#BACKGROUND BACKGROUND} delivery.
+     * @param overflowPolicy          Specifies what happens to a message published while the queue is full.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     * @throws IllegalStateException If no routing key extractor is registered for the subscribed type.
+     * @see #subscribe(Subscriber, Object, int, boolean, boolean, ThreadOption, boolean)
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority,
+                                                           boolean acceptsChildMessages, boolean receiveHistoricMessages,
+                                                           ThreadOption threadOption, boolean keepSubscriberAlive,
+                                                           int capacity, OverflowPolicy overflowPolicy);
+
     /**
      * Subscribes a subscriber to receive messages of a specified type.
      *
@@ -116,6 +215,76 @@ public interface MessageBus {
      */
     <TMessage extends Message> void unsubscribe(SubscriptionToken subscriptionToken);
 
+    /**
+     * Subscribes a subscriber to receive messages of a specified type published in a named channel.
+     *
+     * @param channel    Name of the channel.
+     * @param subscriber The receiver.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     * @see #subscribe(String, Subscriber, int, boolean, ThreadOption, boolean)
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber);
+
+    /**
+     * Subscribes a subscriber to receive messages of a specified type published in a named channel.
+     * <p>
+     * Each channel routes independently of the others and of messages published without a channel,
+     * which never reach channel subscribers. Channels keep no history. A channel exists only while
+     * it has subscribers.
+     *
+     * @param channel              Name of the channel.
+     * @param subscriber           The receiver.
+     * @param priority             Indicates priority of this subscriber. The lower number, the sooner this
+     *                             subscriber receives messages than the other.
+     * @param acceptsChildMessages Flag, determines if this subscriber also accepts messages of children type.
+     * @param threadOption         Specifies delivery thread.
+     * @param keepSubscriberAlive  If true, the message bus will keep a strong reference to the
+     *                             subscriber until the subscriber is unsubscribed.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority,
+                                                           boolean acceptsChildMessages, ThreadOption threadOption,
+                                                           boolean keepSubscriberAlive);
+
+    /**
+     * Subscribes a subscriber to receive messages of a specified type published in a named channel,
+     * through a bounded queue.
+     *
+     * @param channel              Name of the channel.
+     * @param subscriber           The receiver.
+     * @param priority             Indicates priority of this subscriber. The lower number, the sooner this
+     *                             subscriber receives messages than the other.
+     * @param acceptsChildMessages Flag, determines if this subscriber also accepts messages of children type.
+     * @param threadOption         Specifies delivery thread.
+     * @param keepSubscriberAlive  If true, the message bus will keep a strong reference to the
+     *                             subscriber until the subscriber is unsubscribed.
+     * @param capacity             Maximum number of messages waiting for delivery to this subscriber. Only applies
+     *                             to {@link ThreadOption#BACKGROUND BACKGROUND} delivery.
+     * @param overflowPolicy       Specifies what happens to a message published while the queue is full.
+     * @return A subscription token for subscriber. This token is used for cancellation of subscription later on.
+     * @see #subscribe(String, Subscriber, int, boolean, ThreadOption, boolean)
+     */
+    <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority,
+                                                           boolean acceptsChildMessages, ThreadOption threadOption,
+                                                           boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy);
+
+    /**
+     * Registers how routing keys are extracted from messages of a specified type and its sub types,
+     * for subscriptions made with a routing key. A sub type's own extractor takes precedence.
+     *
+     * @param messageType  The message type.
+     * @param keyExtractor The extractor, applied to message content, or null to remove it.
+     */
+    void setRoutingKeyExtractor(Class<? extends Message> messageType, KeyExtractor<?> keyExtractor);
+
+    /**
+     * Indicates current number of messages waiting for delivery to a subscriber.
+     *
+     * @param subscriptionToken The subscription token allocated for the subscriber.
+     * @return The queue depth, always 0 for subscribers that receive messages synchronously or are not subscribed.
+     */
+    int getQueueDepth(SubscriptionToken subscriptionToken);
+
     /**
      * Publishes a message.
      *
@@ -136,10 +305,100 @@ public interface MessageBus {
      *
      * @param message       The message.
      * @param keepInHistory Flag, indicates if the message will be kept in history for sending to late-bound subscribers.
-     * @param callback      A callback object that allows message bus to interact with the publisher.
+     * @param callback      A callback object that allows message bus to interact with the publisher. Pass a
+     *                      {@link BackpressureCallback} to also be told about bounded subscriber queues.
      */
     <TMessage extends Message> void publish(TMessage message, boolean keepInHistory, PublisherCallback callback);
 
+    /**
+     * Publishes a message in a named channel. Only subscribers of that channel receive it.
+     *
+     * @param channel Name of the channel.
+     * @param message The message.
+     */
+    <TMessage extends Message> void publish(String channel, TMessage message);
+
+    /**
+     * Publishes a message in a named channel. Only subscribers of that channel receive it.
+     *
+     * @param channel  Name of the channel.
+     * @param message  The message.
+     * @param callback A callback object that allows message bus to interact with the publisher.
+     */
+    <TMessage extends Message> void publish(String channel, TMessage message, PublisherCallback callback);
+
+    /**
+     * Publishes a request and waits, without blocking, for the first reply to it.
+     * <p>
+     * Subscribers answer a request by calling {@link #reply(Message, Message)}. The request is
+     * published like any other message, but never kept in history.
+     *
+     * @param request   The request.
+     * @param replyType Type of reply expected. Replies of other types are ignored.
+     * @param timeout   Maximum time to wait for a reply.
+     * @param unit      Unit of the timeout.
+     * @return A future completing with the first reply, or failing with a
+     * {@link java.util.concurrent.TimeoutException TimeoutException} if no reply arrives in time or
+     * with an {@link IllegalStateException} if nobody subscribes for the request.
+     */
+    <TMessage extends Message, TReply extends Message> CompletableFuture<TReply> request(TMessage request, Class<TReply> replyType, long timeout, TimeUnit unit);
+
+    /**
+     * Publishes a request and gathers, without blocking, the replies of the subscribers for the
+     * request's own class. Subscribers receiving the request as a child message, such as a
+     * catch-all logger, may reply too but are not waited for.
+     *
+     * @param request   The request.
+     * @param replyType Type of reply expected. Replies of other types are ignored.
+     * @param timeout   Maximum time to wait for the replies.
+     * @param unit      Unit of the timeout.
+     * @return A future completing with the replies, in arrival order, once every live subscriber
+     * for the request's class has replied, or with the replies received so far once the timeout
+     * elapses.
+     */
+    <TMessage extends Message, TReply extends Message> CompletableFuture<List<TReply>> requestAll(TMessage request, Class<TReply> replyType, long timeout, TimeUnit unit);
+
+    /**
+     * Replies to a request published with {@link #request(Message, Class, long, TimeUnit) request}
+     * or {@link #requestAll(Message, Class, long, TimeUnit) requestAll}.
+     *
+     * @param request The request being answered, as received by the subscriber.
+     * @param reply   The reply.
+     * @return false if the request is no longer waiting for replies, e.g. it timed out, or the reply
+     * is not of the expected type.
+     */
+    <TReply extends Message> boolean reply(Message request, TReply reply);
+
+    /**
+     * Publishes a batch of messages.
+     *
+     * @param messages The messages.
+     */
+    <TMessage extends Message> void publishAll(Collection<TMessage> messages);
+
+    /**
+     * Publishes a batch of messages.
+     *
+     * @param messages      The messages.
+     * @param keepInHistory Flag, indicates if the messages will be kept in history for sending to late-bound subscribers.
+     */
+    <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory);
+
+    /**
+     * Publishes a batch of messages.
+     * <p>
+     * Routing is resolved once per message type in the batch, and each subscriber receives all
+     * messages of that type through a single hand-over to its publishing strategy, in the order they
+     * appear in the batch. {@link BatchSubscriber Batch subscribers} receive them in a single call.
+     * Order between messages of different types is not preserved.
+     *
+     * @param messages      The messages.
+     * @param keepInHistory Flag, indicates if the messages will be kept in history for sending to late-bound subscribers.
+     * @param callback      A callback object that allows message bus to interact with the publisher. It is
+     *                      called once per message type in the batch.
+     */
+    <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory, PublisherCallback callback);
+
     /**
      * Removes a historic message from history.
      *
@@ -157,4 +416,17 @@ public interface MessageBus {
      * Indicates current number of historic messages being stored.
      */
     int getHistoryCount();
+
+    /**
+     * Enables or disables recording of metrics. Recording starts from scratch each time metrics are
+     * enabled. While disabled, recording costs nothing.
+     */
+    void setMetricsEnabled(boolean enabled);
+
+    /**
+     * Gets metrics of this message bus.
+     *
+     * @return The metrics, or null if metrics are disabled.
+     */
+    MessageBusMetrics getMetrics();
 }
@@ -17,35 +17,53 @@ package com.robo.messaging;
 
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import com.robo.Guard;
-import com.robo.reflect.TypeUtils;
 
 /**
  * Default implementation of {@link com.robo.messaging.MessageBus MessageBus}.
+ * <p>
+ * While subscriptions are not changing, publishing a message to {@link ThreadOption#PUBLISHER PUBLISHER}
+ * subscribers allocates nothing: the route is served from the registry cache and every subscriber
+ * is resolved once and called directly.
  *
  * @author robo-admin
  */
 public class MessageBusImp implements MessageBus {
 
-    private Map<Type, Subscriptions> mSubscriptions;
+    public static final int DEFAULT_HISTORY_CHUNK_SIZE = 256;
+
+    private SubscriptionRegistry mSubscriptions;
     private SubscriptionBuilder mSubscriptionBuilder;
     private MessageRepository mMessageRepository;
-    private Map<Class<?>, List<Class<?>>> mMessageSuperTypeMap;
     private TokenGenerator mTokenGenerator;
+    private volatile int mHistoryChunkSize;
+    private volatile ParallelFanOut mParallelFanOut;
+    private volatile MetricsRecorder mMetrics;
+    private volatile SlowSubscriberDetector mSlowSubscriberDetector;
+    private ExecutorService mSlowLaneExecutorService;
+    private final PendingRequests mPendingRequests = new PendingRequests();
+    /**
+     * Registries of named channels. A channel is only present while it has subscriptions.
+     */
+    private final ConcurrentHashMap<String, SubscriptionRegistry> mChannels = new ConcurrentHashMap<>();
 
     public MessageBusImp() {
-        this(new UUIDTokenGenerator(), Executors.newCachedThreadPool(), new InMemoryMessageRepository());
+        this(new SequentialTokenGenerator(), Executors.newCachedThreadPool(), new InMemoryMessageRepository());
     }
 
     public MessageBusImp(TokenGenerator tokenGenerator, ExecutorService executorService, MessageRepository messageRepository) {
-        mSubscriptions = new HashMap<>();
-        mMessageSuperTypeMap = new HashMap<>();
+        mSubscriptions = new SubscriptionRegistry();
         mTokenGenerator = tokenGenerator;
-        mSubscriptionBuilder = new SubscriptionBuilder(executorService);
+        mSubscriptionBuilder = new SubscriptionBuilder(executorService, mSubscriptions);
         mMessageRepository = messageRepository;
+        mHistoryChunkSize = DEFAULT_HISTORY_CHUNK_SIZE;
     }
 
     @Override
@@ -70,34 +88,98 @@ public class MessageBusImp implements MessageBus {
 
     @Override
     public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption) {
-        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, ThreadOption.PUBLISHER, false);
+        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, false);
     }
 
     @Override
     public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
         SubscriptionToken subscriptionToken = getSubscriptionToken(subscriber);
-        addSubscription(subscriptionToken.getMessageType(), mSubscriptionBuilder.build(subscriptionToken, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive));
-        if (receiveHistoricMessages) {
-            publishHistoricMessages(subscriber, subscriptionToken.getMessageType(), acceptsChildMessages);
+        subscribe(subscriptionToken, mSubscriptionBuilder.build(subscriptionToken, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy), receiveHistoricMessages);
+        return subscriptionToken;
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, KeyExtractor<?> conflationKeyExtractor) {
+        Guard.isNotNull(conflationKeyExtractor, IllegalArgumentException.class, "conflationKeyExtractor");
+        SubscriptionToken subscriptionToken = getSubscriptionToken(subscriber);
+        subscribe(subscriptionToken, mSubscriptionBuilder.build(subscriptionToken, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, conflationKeyExtractor), receiveHistoricMessages);
+        return subscriptionToken;
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(subscriber, routingKey, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        Guard.isNotNull(routingKey, IllegalArgumentException.class, "routingKey");
+        SubscriptionToken subscriptionToken = getSubscriptionToken(subscriber);
+        if (null == mSubscriptions.getKeyExtractor(subscriptionToken.getMessageType())) {
+            // Without an extractor, no message would ever carry the key.
+            throw new IllegalStateException("No routing key extractor registered for " + subscriptionToken.getMessageType().getName());
         }
+        subscribe(subscriptionToken, mSubscriptionBuilder.build(subscriptionToken, subscriber, routingKey, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy), receiveHistoricMessages);
         return subscriptionToken;
     }
 
     @Override
     public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, PublishingStrategy<TMessage> publishingStrategy, boolean keepSubscriberAlive) {
         SubscriptionToken subscriptionToken = getSubscriptionToken(subscriber);
-        addSubscription(subscriptionToken.getMessageType(), mSubscriptionBuilder.build(subscriptionToken, subscriber, priority, acceptsChildMessages, publishingStrategy, keepSubscriberAlive));
-        if (receiveHistoricMessages) {
-            publishHistoricMessages(subscriber, subscriptionToken.getMessageType(), acceptsChildMessages);
+        subscribe(subscriptionToken, mSubscriptionBuilder.build(subscriptionToken, subscriber, priority, acceptsChildMessages, publishingStrategy, keepSubscriberAlive), receiveHistoricMessages);
+        return subscriptionToken;
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber) {
+        return subscribe(channel, subscriber, 0, true, ThreadOption.PUBLISHER, false);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(channel, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        Guard.isNotNull(channel, IllegalArgumentException.class, "channel");
+        SubscriptionToken subscriptionToken = new ChannelSubscriptionToken(channel, getSubscriptionToken(subscriber));
+        // Serialized with removal of emptied channels, so a subscription never lands in a discarded registry.
+        synchronized (mChannels) {
+            SubscriptionRegistry registry = mChannels.get(channel);
+            if (null == registry) {
+                registry = newChannelRegistry(channel);
+                mChannels.put(channel, registry);
+            }
+            registry.add(subscriptionToken.getMessageType(),
+                    mSubscriptionBuilder.build(registry, subscriptionToken, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive,
+                            capacity, overflowPolicy));
         }
         return subscriptionToken;
     }
 
+    @Override
+    public void setRoutingKeyExtractor(Class<? extends Message> messageType, KeyExtractor<?> keyExtractor) {
+        Guard.isNotNull(messageType, IllegalArgumentException.class, "messageType");
+        mSubscriptions.setKeyExtractor(messageType, keyExtractor);
+    }
+
     @Override
     public <TMessage extends Message> void unsubscribe(SubscriptionToken subscriptionToken) {
         removeSubscription(subscriptionToken);
     }
 
+    @Override
+    public int getQueueDepth(SubscriptionToken subscriptionToken) {
+        Subscription<?> subscription = findSubscription(subscriptionToken);
+        return null == subscription ? 0 : subscription.getQueueDepth();
+    }
+
     @Override
     public <TMessage extends Message> void publish(TMessage message) {
         publish(message, false);
@@ -111,7 +193,96 @@ public class MessageBusImp implements MessageBus {
     @Override
     public <TMessage extends Message> void publish(TMessage message, boolean keepInHistory, PublisherCallback callback) {
         Guard.isNotNull(message, IllegalArgumentException.class, "message");
-        Subscription<TMessage>[] subscriptionsSnapshot = purgeAndGetSubscriptions(message);
+        dispatch(mSubscriptions, message, keepInHistory, callback);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message) {
+        publish(channel, message, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message, PublisherCallback callback) {
+        Guard.isNotNull(channel, IllegalArgumentException.class, "channel");
+        Guard.isNotNull(message, IllegalArgumentException.class, "message");
+        SubscriptionRegistry registry = mChannels.get(channel);
+        if (null != registry) {
+            dispatch(registry, message, false, callback);
+        } else if (null != callback) {
+            callback.noSubscriber();
+        }
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<TReply> request(TMessage request, Class<TReply> replyType,
+                                                                                               long timeout, TimeUnit unit) {
+        checkRequest(request, replyType, timeout, unit);
+        PendingRequests.SingleReply<TReply> pendingRequest = mPendingRequests.register(request, replyType, timeout, unit);
+        dispatchRequest(request, pendingRequest);
+        return pendingRequest.getFuture();
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<List<TReply>> requestAll(TMessage request, Class<TReply> replyType,
+                                                                                                         long timeout, TimeUnit unit) {
+        checkRequest(request, replyType, timeout, unit);
+        PendingRequests.AllReplies<TReply> pendingRequest = mPendingRequests.registerAll(request, replyType, timeout, unit);
+        dispatchRequest(request, pendingRequest);
+        return pendingRequest.getFuture();
+    }
+
+    @Override
+    public <TReply extends Message> boolean reply(Message request, TReply reply) {
+        Guard.isNotNull(request, IllegalArgumentException.class, "request");
+        Guard.isNotNull(reply, IllegalArgumentException.class, "reply");
+        return mPendingRequests.reply(request, reply);
+    }
+
+    /**
+     * Gets the table of requests waiting for replies.
+     */
+    PendingRequests getPendingRequests() {
+        return mPendingRequests;
+    }
+
+    /**
+     * Publishes a registered request. A request that fails to publish is failed and leaves the
+     * table at once instead of waiting for its timeout.
+     * <p>
+     * Only live subscriptions for the request's own class are expected to reply. Subscriptions
+     * receiving it as a child message, such as a catch-all logger, may still reply but are not
+     * waited for.
+     */
+    void dispatchRequest(Message request, PendingRequests.PendingRequest pendingRequest) {
+        SubscriptionRegistry.Route route = mSubscriptions.getRoute(request.getClass()).forMessage(request);
+        int fanOut;
+        try {
+            fanOut = dispatch(route, request, false, null);
+        } catch (RuntimeException | Error e) {
+            pendingRequest.fail(e);
+            throw e;
+        }
+        int replierCount = 0;
+        for (Subscription<?> subscription : route.getSubscriptions()) {
+            if (subscription.getToken().getMessageType() == request.getClass() && subscription.isSubscriberAlive()) {
+                replierCount++;
+            }
+        }
+        pendingRequest.dispatched(fanOut, replierCount);
+    }
+
+    /**
+     * Publishes a message to the subscriptions of a registry currently routed for its type.
+     *
+     * @return Number of subscriptions the message was handed to.
+     */
+    private <TMessage extends Message> int dispatch(SubscriptionRegistry registry, TMessage message, boolean keepInHistory, PublisherCallback callback) {
+        return dispatch(registry.getRoute(message.getClass()).forMessage(message), message, keepInHistory, callback);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <TMessage extends Message> int dispatch(SubscriptionRegistry.Route route, TMessage message, boolean keepInHistory, PublisherCallback callback) {
+        Subscription<TMessage>[] subscriptionsSnapshot = (Subscription<TMessage>[]) route.getSubscriptions();
         if (null != callback) {
             if (subscriptionsSnapshot.length == 0) {
                 callback.noSubscriber();
@@ -119,13 +290,57 @@ public class MessageBusImp implements MessageBus {
                 callback.messageEnqueued();
             }
         }
-        Arrays.sort(subscriptionsSnapshot);
-        for (Subscription<TMessage> subscription : subscriptionsSnapshot) {
-            subscription.publish(message);
+        MetricsRecorder metrics = mMetrics;
+        MetricsRecorder.TypeMetrics typeMetrics = null == metrics ? null : metrics.published(message.getClass(), 1, subscriptionsSnapshot.length);
+        SlowSubscriberDetector slowSubscriberDetector = mSlowSubscriberDetector;
+        ParallelFanOut parallelFanOut = mParallelFanOut;
+        if (null != parallelFanOut && parallelFanOut.appliesTo(route)) {
+            parallelFanOut.publish(route, message, callback, typeMetrics, slowSubscriberDetector);
+        } else {
+            for (Subscription<TMessage> subscription : subscriptionsSnapshot) {
+                subscription.publish(message, callback, typeMetrics, slowSubscriberDetector);
+            }
         }
         if (keepInHistory) {
             mMessageRepository.store(message);
         }
+        return subscriptionsSnapshot.length;
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages) {
+        publishAll(messages, false);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory) {
+        publishAll(messages, keepInHistory, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory, PublisherCallback callback) {
+        Guard.isNotNull(messages, IllegalArgumentException.class, "messages");
+        MetricsRecorder metrics = mMetrics;
+        SlowSubscriberDetector slowSubscriberDetector = mSlowSubscriberDetector;
+        for (Map.Entry<SubscriptionRegistry.Route, List<TMessage>> routedBatch : groupByRoute(messages).entrySet()) {
+            List<TMessage> batch = routedBatch.getValue();
+            Subscription<TMessage>[] subscriptionsSnapshot = (Subscription<TMessage>[]) routedBatch.getKey().getSubscriptions();
+            if (null != callback) {
+                if (subscriptionsSnapshot.length == 0) {
+                    callback.noSubscriber();
+                } else {
+                    callback.messageEnqueued();
+                }
+            }
+            MetricsRecorder.TypeMetrics typeMetrics = null == metrics ? null : metrics.published(batch.get(0).getClass(), batch.size(), subscriptionsSnapshot.length);
+            for (Subscription<TMessage> subscription : subscriptionsSnapshot) {
+                subscription.publishAll(batch, callback, typeMetrics, slowSubscriberDetector);
+            }
+        }
+        if (keepInHistory) {
+            mMessageRepository.storeAll(messages);
+        }
     }
 
     @Override
@@ -143,81 +358,213 @@ public class MessageBusImp implements MessageBus {
         return mMessageRepository.size();
     }
 
-    private <TMessage extends Message> void publishHistoricMessages(Subscriber<TMessage> subscriber, Class<? extends Message> messageType, boolean acceptsChildMessages) {
-        Collection<Message> historicMessages = mMessageRepository.find(messageType, acceptsChildMessages);
-        for (Message message : historicMessages) {
-            message.setHistoric(true);
-            subscriber.receive((TMessage) message);
+    @Override
+    public void setMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            mMetrics = null;
+        } else if (null == mMetrics) {
+            mMetrics = new MetricsRecorder(mSubscriptions, mMessageRepository);
         }
     }
 
-    synchronized private <TMessage extends Message> void addSubscription(Type messageType, Subscription<TMessage> subscription) {
-        Subscriptions byMessageSubscriptions;
-        if (!mSubscriptions.containsKey(messageType)) {
-            byMessageSubscriptions = new Subscriptions();
-            mSubscriptions.put(messageType, byMessageSubscriptions);
-        } else {
-            byMessageSubscriptions = mSubscriptions.get(messageType);
+    @Override
+    public MessageBusMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets the maximum number of historic messages handed over to a late-bound subscriber at once.
+     */
+    public void setHistoryChunkSize(int historyChunkSize) {
+        if (historyChunkSize <= 0) {
+            throw new IllegalArgumentException("historyChunkSize");
+        }
+        mHistoryChunkSize = historyChunkSize;
+    }
+
+    /**
+     * Enables parallel fan-out: subscribers sharing a priority are delivered to in parallel on a
+     * fork/join pool, while distinct priorities are still delivered one after another. Meant for
+     * message types with many CPU-bound {@link ThreadOption#PUBLISHER PUBLISHER} subscribers.
+     *
+     * @param pool      The pool to fan out on, or null to deliver sequentially again.
+     * @param threshold Minimum number of subscribers sharing a priority for them to be delivered to in
+     *                  parallel. Ignored when the pool is null.
+     */
+    public void setParallelFanOut(ForkJoinPool pool, int threshold) {
+        if (null != pool && threshold <= 1) {
+            throw new IllegalArgumentException("threshold");
         }
-        byMessageSubscriptions.add(subscription);
+        mParallelFanOut = null == pool ? null : new ParallelFanOut(pool, threshold);
     }
 
-    synchronized private void removeSubscription(SubscriptionToken token) {
-        if (mSubscriptions.containsKey(token.getMessageType())) {
-            Subscriptions byMessageSubscriptions = mSubscriptions.get(token.getMessageType());
-            byMessageSubscriptions.removeByKey(token);
-            if (byMessageSubscriptions.size() == 0) {
-                mSubscriptions.remove(token.getMessageType());
+    /**
+     * Enables detection of slow {@link ThreadOption#PUBLISHER PUBLISHER} subscribers: each inline
+     * delivery is timed, and the first time a subscriber exceeds the budget a
+     * {@link SlowSubscriberMessage} is published on this bus.
+     *
+     * @param budget Maximum time a subscriber may spend receiving a message, or 0 to disable detection.
+     * @param unit   Unit of the budget.
+     * @param demote true to also move a slow subscriber off the publisher's thread, onto a
+     *               background lane of its own.
+     */
+    public void setSlowSubscriberDetection(long budget, TimeUnit unit, boolean demote) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        if (budget == 0) {
+            mSlowSubscriberDetector = null;
+            return;
+        }
+        Guard.isNotNull(unit, IllegalArgumentException.class, "unit");
+        ExecutorService laneExecutorService = null;
+        if (demote) {
+            synchronized (this) {
+                if (null == mSlowLaneExecutorService) {
+                    mSlowLaneExecutorService = SlowSubscriberDetector.newLaneExecutorService();
+                }
+                laneExecutorService = mSlowLaneExecutorService;
             }
         }
+        mSlowSubscriberDetector = new SlowSubscriberDetector(this, unit.toNanos(budget), demote, laneExecutorService);
     }
 
-    @SuppressWarnings("unchecked")
-    private <TMessage extends Message> Subscription<TMessage>[] purgeAndGetSubscriptions(TMessage message) {
-        List<Subscription<? extends Message>> subscriptionsSnapshot = new ArrayList<>();
-        Class<? extends TMessage> messageType = (Class<? extends TMessage>) message.getClass();
-        subscriptionsSnapshot.addAll(purgeAndGetSubscriptions(messageType, false));
-        List<Class<?>> allSuperTypes = getAllSuperTypes(message);
-        for (Class<?> messageSuperType : allSuperTypes) {
-            subscriptionsSnapshot.addAll(purgeAndGetSubscriptions(messageSuperType, true));
+    /**
+     * Indicates if the subscriber of a subscription has been flagged as slow.
+     */
+    public boolean isSlowSubscriber(SubscriptionToken subscriptionToken) {
+        Subscription<?> subscription = findSubscription(subscriptionToken);
+        return null != subscription && subscription.isSlow();
+    }
+
+    static void checkRequest(Message request, Class<?> replyType, long timeout, TimeUnit unit) {
+        Guard.isNotNull(request, IllegalArgumentException.class, "request");
+        Guard.isNotNull(replyType, IllegalArgumentException.class, "replyType");
+        Guard.isNotNull(unit, IllegalArgumentException.class, "unit");
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout");
         }
-        return subscriptionsSnapshot.toArray(new Subscription[subscriptionsSnapshot.size()]);
     }
 
+    private <TMessage extends Message> void subscribe(SubscriptionToken subscriptionToken, Subscription<TMessage> subscription, boolean receiveHistoricMessages) {
+        if (!receiveHistoricMessages) {
+            addSubscription(subscriptionToken.getMessageType(), subscription);
+            return;
+        }
+        // Live messages published while replaying are held back by the subscription and delivered after the history.
+        subscription.beginReplay();
+        addSubscription(subscriptionToken.getMessageType(), subscription);
+        try {
+            publishHistoricMessages(subscription, subscriptionToken.getMessageType());
+        } finally {
+            subscription.endReplay();
+        }
+    }
+
+    /**
+     * Replays history to a new subscription in chunks read from a repository cursor, through the
+     * subscription's own publishing strategy. Historic messages a bounded queue drops are counted
+     * in the metrics, if enabled.
+     */
     @SuppressWarnings("unchecked")
-    synchronized private Collection<Subscription<? extends Message>> purgeAndGetSubscriptions(Class<?> messageType, boolean isFindingBySuperType) {
-        List<Subscription<? extends Message>> subscriptionsSnapshot = new ArrayList<>();
-        if (mSubscriptions.containsKey(messageType)) {
-            Subscriptions subscriptions = mSubscriptions.get(messageType);
-            for (int i = 0; i < subscriptions.size(); i++) {
-                Subscription<? extends Message> subscription = subscriptions.getAt(i);
-                if (!subscription.isSubscriberAlive()) {
-                    subscriptions.remove(subscription);
-                } else {
-                    if (!isFindingBySuperType || subscription.acceptsChildMessages()) {
-                        subscriptionsSnapshot.add(subscription);
-                    }
-                }
+    private <TMessage extends Message> void publishHistoricMessages(Subscription<TMessage> subscription, final Class<? extends Message> messageType) {
+        final MetricsRecorder metrics = mMetrics;
+        PublisherCallback callback = null == metrics ? null : new BackpressureCallback() {
+            @Override
+            public void messageDropped() {
+                metrics.replayDropped(messageType);
+            }
+
+            @Override
+            public void backpressureApplied() {
+            }
+
+            @Override
+            public void noSubscriber() {
+            }
+
+            @Override
+            public void messageEnqueued() {
+            }
+        };
+        int chunkSize = mHistoryChunkSize;
+        Object routingKey = subscription.getRoutingKey();
+        Iterator<Message> historicMessages = mMessageRepository.iterate(messageType, subscription.acceptsChildMessages());
+        List<TMessage> chunk = new ArrayList<>(chunkSize);
+        while (historicMessages.hasNext()) {
+            Message message = historicMessages.next();
+            if (null != routingKey && !routingKey.equals(mSubscriptions.getRoute(message.getClass()).extractKey(message))) {
+                continue;
             }
-            if (subscriptions.size() == 0) {
-                mSubscriptions.remove(messageType);
+            chunk.add((TMessage) message);
+            if (chunk.size() == chunkSize) {
+                subscription.replay(Collections.unmodifiableList(chunk), callback);
+                chunk = new ArrayList<>(chunkSize);
             }
         }
-        return subscriptionsSnapshot;
+        if (!chunk.isEmpty()) {
+            subscription.replay(Collections.unmodifiableList(chunk), callback);
+        }
     }
 
-    synchronized private List<Class<?>> getAllSuperTypes(Object message) {
-        Class<?> messageType = message.getClass();
-        List<Class<?>> allTypesIncludingSuper;
-        if (!mMessageSuperTypeMap.containsKey(messageType)) {
-            allTypesIncludingSuper = new ArrayList<>();
-            TypeUtils.fetchAllSuperTypes(messageType, allTypesIncludingSuper);
-            TypeUtils.fetchAllInterfaces(messageType, allTypesIncludingSuper);
-            mMessageSuperTypeMap.put(messageType, allTypesIncludingSuper);
-        } else {
-            allTypesIncludingSuper = mMessageSuperTypeMap.get(messageType);
+    /**
+     * Splits a batch into read-only lists of messages sharing a route, i.e. of the same concrete
+     * type and, for keyed routes, the same routing key. Keeps the order of messages within each list.
+     */
+    private <TMessage extends Message> Map<SubscriptionRegistry.Route, List<TMessage>> groupByRoute(Collection<TMessage> messages) {
+        Map<SubscriptionRegistry.Route, List<TMessage>> messagesByRoute = new LinkedHashMap<>();
+        for (TMessage message : messages) {
+            Guard.isNotNull(message, IllegalArgumentException.class, "message");
+            SubscriptionRegistry.Route route = mSubscriptions.getRoute(message.getClass()).forMessage(message);
+            List<TMessage> batch = messagesByRoute.get(route);
+            if (null == batch) {
+                batch = new ArrayList<>();
+                messagesByRoute.put(route, batch);
+            }
+            batch.add(message);
+        }
+        for (Map.Entry<SubscriptionRegistry.Route, List<TMessage>> routedBatch : messagesByRoute.entrySet()) {
+            routedBatch.setValue(Collections.unmodifiableList(routedBatch.getValue()));
+        }
+        return messagesByRoute;
+    }
+
+    private <TMessage extends Message> void addSubscription(Type messageType, Subscription<TMessage> subscription) {
+        mSubscriptions.add(messageType, subscription);
+    }
+
+    private void removeSubscription(SubscriptionToken token) {
+        SubscriptionRegistry registry = getRegistry(token);
+        if (null != registry) {
+            registry.remove(token);
         }
-        return allTypesIncludingSuper;
+    }
+
+    private Subscription<?> findSubscription(SubscriptionToken token) {
+        SubscriptionRegistry registry = getRegistry(token);
+        return null == registry ? null : registry.find(token);
+    }
+
+    /**
+     * Gets the registry a token's subscription lives in, or null if its channel has no subscriptions left.
+     */
+    private SubscriptionRegistry getRegistry(SubscriptionToken token) {
+        return token instanceof ChannelSubscriptionToken
+                ? mChannels.get(((ChannelSubscriptionToken) token).getChannel()) : mSubscriptions;
+    }
+
+    private SubscriptionRegistry newChannelRegistry(final String channel) {
+        return new SubscriptionRegistry(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mChannels) {
+                    SubscriptionRegistry registry = mChannels.get(channel);
+                    if (null != registry && registry.isEmpty()) {
+                        mChannels.remove(channel);
+                    }
+                }
+            }
+        });
     }
 
     private SubscriptionToken getSubscriptionToken(Subscriber<?> subscriber) {
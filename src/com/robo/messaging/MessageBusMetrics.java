@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.Set;
+
+/**
+ * Metrics of a {@link MessageBus}, per message type.
+ * <p>
+ * Figures are recorded from the moment metrics are enabled and are read without stopping
+ * publishers, so figures read together may be slightly out of step with each other.
+ *
+ * @author robo-admin
+ * @see MessageBus#setMetricsEnabled(boolean)
+ */
+public interface MessageBusMetrics {
+
+    /**
+     * Gets concrete types of messages published since metrics were enabled.
+     */
+    Set<Class<? extends Message>> getMessageTypes();
+
+    /**
+     * Gets number of messages of a specified concrete type published.
+     */
+    long getPublishCount(Class<? extends Message> messageType);
+
+    /**
+     * Gets number of messages of a specified concrete type published while there was no subscriber for them.
+     */
+    long getNoSubscriberCount(Class<? extends Message> messageType);
+
+    /**
+     * Gets distribution of the number of subscriptions each message of a specified concrete type was
+     * handed to.
+     *
+     * @return The histogram, or null if no message of the type has been published.
+     */
+    Histogram getFanOut(Class<? extends Message> messageType);
+
+    /**
+     * Gets names of the {@link PublishingStrategy publishing strategies} messages of a specified
+     * concrete type have been delivered through. Names are class names of the strategies.
+     */
+    Set<String> getPublishingStrategies(Class<? extends Message> messageType);
+
+    /**
+     * Gets distribution of nanoseconds messages of a specified concrete type spent between being
+     * published and being handed to a subscriber, for a specified publishing strategy.
+     *
+     * @return The histogram, or null if nothing has been delivered through the strategy.
+     */
+    Histogram getQueueTime(Class<? extends Message> messageType, String publishingStrategy);
+
+    /**
+     * Gets distribution of nanoseconds subscribers spent receiving messages of a specified concrete
+     * type, for a specified publishing strategy. A batch is measured as a whole.
+     *
+     * @return The histogram, or null if nothing has been delivered through the strategy.
+     */
+    Histogram getExecutionTime(Class<? extends Message> messageType, String publishingStrategy);
+
+    /**
+     * Gets number of subscriptions for a specified message type removed because their subscriber
+     * was garbage collected. Counted since the bus was created.
+     */
+    long getPurgedSubscriberCount(Class<? extends Message> messageType);
+
+    /**
+     * Gets number of historic messages dropped while being replayed to late subscribers of a
+     * specified type, because their bounded queue was full and drops rather than blocks. Counted
+     * since metrics were enabled.
+     */
+    long getReplayDropCount(Class<? extends Message> messageType);
+
+    /**
+     * Gets number of historic messages of exactly a specified type currently kept.
+     */
+    int getHistorySize(Class<? extends Message> messageType);
+}
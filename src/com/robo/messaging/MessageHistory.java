@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Historic messages of one concrete message type, kept by {@link InMemoryMessageRepository}.
+ * <p>
+ * Messages are keys of a linked hash map, so storing, deduplicating and removing cost O(1). The map
+ * is kept in insertion or access order depending on {@link EvictionOrder}, which puts the next
+ * message to evict for count and byte limits at its head.
+ * <p>
+ * Stamps of stored messages are also linked in insertion order, independently of the map. Age
+ * limits expire messages from the head of that list, whatever the eviction order, and a
+ * {@link #cursor() cursor} reads the live history from it a chunk at a time. A stamp that is
+ * unlinked keeps its link to the next one, so a cursor positioned on a removed message still finds
+ * its way.
+ *
+ * @author robo-admin
+ */
+final class MessageHistory {
+
+    /**
+     * Maximum number of messages a cursor reads under the lock at once.
+     */
+    static final int CURSOR_CHUNK_SIZE = 64;
+
+    private LinkedHashMap<Message, Stamp> mMessages;
+    private Stamp mFirst;
+    private Stamp mLast;
+    private HistoryLimits mLimits;
+    private long mBytes;
+    private long mEvictionCount;
+    private final AtomicLong mTotalEvictionCount;
+
+    MessageHistory(HistoryLimits limits, AtomicLong totalEvictionCount) {
+        mLimits = limits;
+        mMessages = newMap(limits);
+        mTotalEvictionCount = totalEvictionCount;
+    }
+
+    synchronized void add(Message message) {
+        long now = now();
+        put(message, now);
+        evict(now);
+    }
+
+    synchronized void addAll(List<? extends Message> messages) {
+        long now = now();
+        for (int i = 0; i < messages.size(); i++) {
+            put(messages.get(i), now);
+        }
+        evict(now);
+    }
+
+    synchronized boolean remove(Message message) {
+        Stamp stamp = mMessages.remove(message);
+        if (null == stamp) {
+            return false;
+        }
+        unlink(stamp);
+        return true;
+    }
+
+    synchronized int size() {
+        evict(now());
+        return mMessages.size();
+    }
+
+    /**
+     * Adds all messages that are still within limits to a collection. In LRU order this counts as
+     * using them.
+     */
+    synchronized void copyTo(Collection<Message> result) {
+        evict(now());
+        if (mLimits.getEvictionOrder() == EvictionOrder.LRU) {
+            List<Message> messages = new ArrayList<>(mMessages.keySet());
+            for (Message message : messages) {
+                // The lookup moves the message to the tail of the access order.
+                mMessages.get(message);
+            }
+            result.addAll(messages);
+        } else {
+            result.addAll(mMessages.keySet());
+        }
+    }
+
+    synchronized void setLimits(HistoryLimits limits) {
+        if (limits.getEvictionOrder() != mLimits.getEvictionOrder()) {
+            LinkedHashMap<Message, Stamp> messages = newMap(limits);
+            messages.putAll(mMessages);
+            mMessages = messages;
+        }
+        mLimits = limits;
+        mBytes = 0;
+        for (Map.Entry<Message, Stamp> entry : mMessages.entrySet()) {
+            entry.getValue().mBytes = limits.getSizeEstimator().estimateSize(entry.getKey());
+            mBytes += entry.getValue().mBytes;
+        }
+        evict(now());
+    }
+
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Opens a cursor over messages in the order they were stored. It reads up to
+     * {@link #CURSOR_CHUNK_SIZE} messages under the lock at a time, which in LRU order counts as
+     * using them. Messages stored or removed while it is open may or may not be seen.
+     */
+    Iterator<Message> cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads the next chunk of messages still within limits, after a stamp.
+     *
+     * @param after  Stamp of the last message read, or null to start from the oldest message.
+     * @param result Receives the messages read.
+     * @return Stamp of the last message read, or {@code after} if there were none.
+     */
+    private synchronized Stamp read(Stamp after, List<Message> result) {
+        evict(now());
+        Stamp stamp = null == after ? mFirst : after.mNext;
+        while (null != stamp && result.size() < CURSOR_CHUNK_SIZE) {
+            if (!stamp.mIsRemoved) {
+                result.add(stamp.mMessage);
+                if (mLimits.getEvictionOrder() == EvictionOrder.LRU) {
+                    // The lookup moves the message to the tail of the access order.
+                    mMessages.get(stamp.mMessage);
+                }
+                after = stamp;
+            }
+            stamp = stamp.mNext;
+        }
+        return after;
+    }
+
+    private void put(Message message, long now) {
+        Stamp stamp = mMessages.get(message);
+        if (null != stamp) {
+            // Already stored. The lookup above refreshed its position in LRU order, not its age.
+            return;
+        }
+        stamp = new Stamp(message, now, mLimits.getSizeEstimator().estimateSize(message));
+        mMessages.put(message, stamp);
+        mBytes += stamp.mBytes;
+        stamp.mPrevious = mLast;
+        if (null == mLast) {
+            mFirst = stamp;
+        } else {
+            mLast.mNext = stamp;
+        }
+        mLast = stamp;
+    }
+
+    /**
+     * Unlinks a stamp from the insertion order. Its own link to the next stamp is kept for cursors.
+     */
+    private void unlink(Stamp stamp) {
+        mBytes -= stamp.mBytes;
+        stamp.mIsRemoved = true;
+        if (null == stamp.mPrevious) {
+            mFirst = stamp.mNext;
+        } else {
+            stamp.mPrevious.mNext = stamp.mNext;
+        }
+        if (null == stamp.mNext) {
+            mLast = stamp.mPrevious;
+        } else {
+            stamp.mNext.mPrevious = stamp.mPrevious;
+        }
+        stamp.mPrevious = null;
+    }
+
+    /**
+     * Expires messages stored too long ago from the head of the insertion order, then evicts from the
+     * head of the map until count and byte limits hold.
+     */
+    private void evict(long now) {
+        if (mLimits.isAgeBounded()) {
+            while (null != mFirst && now - mFirst.mStoredTime > mLimits.getMaxAgeNanos()) {
+                Stamp eldest = mFirst;
+                mMessages.remove(eldest.mMessage);
+                unlink(eldest);
+                countEviction();
+            }
+        }
+        Iterator<Map.Entry<Message, Stamp>> iterator = mMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (mMessages.size() <= mLimits.getMaxCount() && mBytes <= mLimits.getMaxBytes()) {
+                return;
+            }
+            Stamp eldest = iterator.next().getValue();
+            iterator.remove();
+            unlink(eldest);
+            countEviction();
+        }
+    }
+
+    private void countEviction() {
+        mEvictionCount++;
+        mTotalEvictionCount.incrementAndGet();
+    }
+
+    private static long now() {
+        return System.nanoTime();
+    }
+
+    private static LinkedHashMap<Message, Stamp> newMap(HistoryLimits limits) {
+        return new LinkedHashMap<>(16, 0.75f, limits.getEvictionOrder() == EvictionOrder.LRU);
+    }
+
+    private static final class Stamp {
+        final Message mMessage;
+        final long mStoredTime;
+        long mBytes;
+        Stamp mPrevious;
+        Stamp mNext;
+        boolean mIsRemoved;
+
+        Stamp(Message message, long storedTime, long bytes) {
+            mMessage = message;
+            mStoredTime = storedTime;
+            mBytes = bytes;
+        }
+    }
+
+    private final class Cursor implements Iterator<Message> {
+        private final List<Message> mChunk = new ArrayList<>(CURSOR_CHUNK_SIZE);
+        private Stamp mPosition;
+        private int mIndex;
+        private boolean mIsExhausted;
+
+        @Override
+        public boolean hasNext() {
+            if (mIndex == mChunk.size() && !mIsExhausted) {
+                mChunk.clear();
+                mIndex = 0;
+                mPosition = read(mPosition, mChunk);
+                mIsExhausted = mChunk.isEmpty();
+            }
+            return mIndex < mChunk.size();
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return mChunk.get(mIndex++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Built-in {@link MessageIdGenerator}s.
+ *
+ * @author robo-admin
+ */
+public final class MessageIdGenerators {
+
+    private MessageIdGenerators() {
+    }
+
+    /**
+     * Creates a generator handing out a single monotonic sequence shared by all threads.
+     */
+    public static MessageIdGenerator sequential() {
+        return new SequentialIdGenerator();
+    }
+
+    /**
+     * Creates a generator in which each thread hands out ids from its own block of the
+     * sequence, reserving a new block only once the current one is exhausted. Ids are unique but
+     * only ordered within a thread.
+     */
+    public static MessageIdGenerator threadLocalSequence() {
+        return new ThreadLocalSequenceIdGenerator();
+    }
+
+    private static class SequentialIdGenerator implements MessageIdGenerator {
+        private final AtomicLong mLastId = new AtomicLong();
+
+        @Override
+        public long nextId() {
+            return mLastId.incrementAndGet();
+        }
+    }
+
+    private static class ThreadLocalSequenceIdGenerator implements MessageIdGenerator {
+        // Starts at 1 so that no id is ever 0, which marks an unassigned id.
+        private final ThreadLocalBlockSequence mSequence = new ThreadLocalBlockSequence(1, 1024);
+
+        @Override
+        public long nextId() {
+            return mSequence.next();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.robo.messaging;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * @author robo-admin
@@ -27,11 +28,23 @@ public interface MessageRepository {
      */
     int size();
 
+    /**
+     * Indicates current number of messages of a concrete type, without reading them.
+     *
+     * @param messageType Concrete message type. Child messages are not counted.
+     */
+    int count(Class<? extends Message> messageType);
+
     /**
      * Stores a message.
      */
     void store(Message message);
 
+    /**
+     * Stores a batch of messages.
+     */
+    void storeAll(Collection<? extends Message> messages);
+
     /**
      * Removes a message.
      */
@@ -50,4 +63,14 @@ public interface MessageRepository {
      * @return The collection of messages if found. Otherwise an empty collection.
      */
     Collection<Message> find(Class<? extends Message> contractType, boolean includeChildren);
+
+    /**
+     * Opens a cursor over all messages of a specified contract type, for reading them incrementally
+     * instead of copying them all at once.
+     *
+     * @param contractType    Message contract type.
+     * @param includeChildren Flag, indicates if child messages are also be counted.
+     * @return The cursor. Messages stored or removed while it is open may or may not be seen.
+     */
+    Iterator<Message> iterate(Class<? extends Message> contractType, boolean includeChildren);
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.robo.reflect.TypeUtils;
+
+/**
+ * Resolves the message type a subscriber class subscribes for, caching the result per class so
+ * that generic type reflection runs once per subscriber class rather than once per subscribe.
+ * A subscriber class whose message type cannot be resolved is not cached and resolves to null.
+ *
+ * @author robo-admin
+ */
+final class MessageTypes {
+
+    private static final ConcurrentHashMap<Class<?>, Class<? extends Message>> MESSAGE_TYPES = new ConcurrentHashMap<>();
+
+    private MessageTypes() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Class<? extends Message> of(Subscriber<?> subscriber) {
+        if (subscriber instanceof TypedSubscriber) {
+            return ((TypedSubscriber) subscriber).getMessageType();
+        }
+        Class<?> subscriberType = subscriber.getClass();
+        Class<? extends Message> messageType = MESSAGE_TYPES.get(subscriberType);
+        if (null == messageType) {
+            messageType = (Class<? extends Message>) TypeUtils.getGenericParameterType(subscriberType, 0);
+            if (null != messageType) {
+                MESSAGE_TYPES.putIfAbsent(subscriberType, messageType);
+            }
+        }
+        return messageType;
+    }
+}
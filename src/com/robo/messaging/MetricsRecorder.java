@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records {@link MessageBusMetrics} of a bus. Only exists while metrics are enabled, so a bus
+ * without metrics pays for a single null check per publish.
+ *
+ * @author robo-admin
+ */
+final class MetricsRecorder implements MessageBusMetrics {
+
+    private final SubscriptionRegistry mSubscriptions;
+    private final MessageRepository mMessageRepository;
+    private final ConcurrentHashMap<Class<? extends Message>, TypeMetrics> mTypes;
+
+    MetricsRecorder(SubscriptionRegistry subscriptions, MessageRepository messageRepository) {
+        mSubscriptions = subscriptions;
+        mMessageRepository = messageRepository;
+        mTypes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records publishing of messages of a concrete type.
+     *
+     * @param count  Number of messages published.
+     * @param fanOut Number of subscriptions each message is handed to.
+     * @return Metrics of the type, for timing the deliveries.
+     */
+    TypeMetrics published(Class<? extends Message> messageType, int count, int fanOut) {
+        TypeMetrics metrics = getOrCreateTypeMetrics(messageType);
+        metrics.mPublishCount.add(count);
+        metrics.mFanOut.record(fanOut, count);
+        if (fanOut == 0) {
+            metrics.mNoSubscriberCount.add(count);
+        }
+        return metrics;
+    }
+
+    /**
+     * Records a historic message dropped while being replayed to a late subscriber of a type.
+     */
+    void replayDropped(Class<? extends Message> messageType) {
+        getOrCreateTypeMetrics(messageType).mReplayDropCount.increment();
+    }
+
+    @Override
+    public Set<Class<? extends Message>> getMessageTypes() {
+        return Collections.unmodifiableSet(mTypes.keySet());
+    }
+
+    @Override
+    public long getPublishCount(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? 0 : metrics.mPublishCount.sum();
+    }
+
+    @Override
+    public long getNoSubscriberCount(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? 0 : metrics.mNoSubscriberCount.sum();
+    }
+
+    @Override
+    public Histogram getFanOut(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? null : metrics.mFanOut;
+    }
+
+    @Override
+    public Set<String> getPublishingStrategies(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? Collections.<String>emptySet() : Collections.unmodifiableSet(metrics.mDeliveries.keySet());
+    }
+
+    @Override
+    public Histogram getQueueTime(Class<? extends Message> messageType, String publishingStrategy) {
+        DeliveryMetrics metrics = getDeliveryMetrics(messageType, publishingStrategy);
+        return null == metrics ? null : metrics.mQueueTime;
+    }
+
+    @Override
+    public Histogram getExecutionTime(Class<? extends Message> messageType, String publishingStrategy) {
+        DeliveryMetrics metrics = getDeliveryMetrics(messageType, publishingStrategy);
+        return null == metrics ? null : metrics.mExecutionTime;
+    }
+
+    @Override
+    public long getPurgedSubscriberCount(Class<? extends Message> messageType) {
+        return mSubscriptions.getPurgeCount(messageType);
+    }
+
+    @Override
+    public long getReplayDropCount(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? 0 : metrics.mReplayDropCount.sum();
+    }
+
+    @Override
+    public int getHistorySize(Class<? extends Message> messageType) {
+        return mMessageRepository.count(messageType);
+    }
+
+    private TypeMetrics getOrCreateTypeMetrics(Class<? extends Message> messageType) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        if (null == metrics) {
+            TypeMetrics created = new TypeMetrics();
+            metrics = mTypes.putIfAbsent(messageType, created);
+            if (null == metrics) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    private DeliveryMetrics getDeliveryMetrics(Class<? extends Message> messageType, String publishingStrategy) {
+        TypeMetrics metrics = mTypes.get(messageType);
+        return null == metrics ? null : metrics.mDeliveries.get(publishingStrategy);
+    }
+
+    static final class TypeMetrics {
+        private final LongAdder mPublishCount = new LongAdder();
+        private final LongAdder mNoSubscriberCount = new LongAdder();
+        private final LongAdder mReplayDropCount = new LongAdder();
+        private final Histogram mFanOut = new Histogram();
+        private final ConcurrentHashMap<String, DeliveryMetrics> mDeliveries = new ConcurrentHashMap<>();
+
+        /**
+         * Wraps a subscriber so that the time until and of its delivery is recorded for a publishing strategy.
+         */
+        <TMessage extends Message> Subscriber<TMessage> timed(Subscriber<TMessage> subscriber, PublishingStrategy<TMessage> publishingStrategy) {
+            String name = publishingStrategy.getClass().getName();
+            DeliveryMetrics metrics = mDeliveries.get(name);
+            if (null == metrics) {
+                DeliveryMetrics created = new DeliveryMetrics();
+                metrics = mDeliveries.putIfAbsent(name, created);
+                if (null == metrics) {
+                    metrics = created;
+                }
+            }
+            return new TimedSubscriber<>(subscriber, metrics);
+        }
+    }
+
+    private static final class DeliveryMetrics {
+        private final Histogram mQueueTime = new Histogram();
+        private final Histogram mExecutionTime = new Histogram();
+    }
+
+    /**
+     * Measures a single hand-over to a subscriber, from the moment it is published.
+     */
+    private static final class TimedSubscriber<TMessage extends Message> implements BatchSubscriber<TMessage> {
+        private final Subscriber<TMessage> mSubscriber;
+        private final DeliveryMetrics mMetrics;
+        private final long mPublishedAt;
+
+        TimedSubscriber(Subscriber<TMessage> subscriber, DeliveryMetrics metrics) {
+            mSubscriber = subscriber;
+            mMetrics = metrics;
+            mPublishedAt = System.nanoTime();
+        }
+
+        @Override
+        public void receive(TMessage message) {
+            long start = System.nanoTime();
+            mMetrics.mQueueTime.record(start - mPublishedAt);
+            try {
+                mSubscriber.receive(message);
+            } finally {
+                mMetrics.mExecutionTime.record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void receiveAll(List<TMessage> messages) {
+            long start = System.nanoTime();
+            mMetrics.mQueueTime.record(start - mPublishedAt);
+            try {
+                Subscription.receiveAll(mSubscriber, messages);
+            } finally {
+                mMetrics.mExecutionTime.record(System.nanoTime() - start);
+            }
+        }
+    }
+}
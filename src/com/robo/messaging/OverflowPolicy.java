@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Specifies what happens when a message is delivered to an asynchronous subscriber whose queue is full.
+ *
+ * @author robo-admin
+ */
+public enum OverflowPolicy {
+    /**
+     * Blocks the publisher until the subscriber has made room.
+     */
+    BLOCK,
+
+    /**
+     * Drops the message being published.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the oldest message waiting in the queue to make room for the one being published.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Rejects the message being published by throwing {@link IllegalStateException} to the publisher.
+     */
+    FAIL
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Delivers a message to the subscriptions of a route with each priority tier fanned out on a
+ * fork/join pool.
+ * <p>
+ * Tiers are still delivered one after another in priority order: a tier only starts once every
+ * subscription of the previous one has been handed the message. Tiers smaller than the threshold
+ * are delivered sequentially on the publisher's thread. Only subscriptions delivering on the
+ * publisher's thread are fanned out; the others are handed the message from the publisher's thread
+ * first, so a background subscriber is never drained inline on a pool thread.
+ *
+ * @author robo-admin
+ */
+final class ParallelFanOut {
+
+    /**
+     * Number of fork/join tasks a tier is split into per pool thread, so that threads finishing
+     * early can steal work from the others.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final ForkJoinPool mPool;
+    private final int mThreshold;
+
+    ParallelFanOut(ForkJoinPool pool, int threshold) {
+        mPool = pool;
+        mThreshold = threshold;
+    }
+
+    /**
+     * Indicates if any tier of a route is large enough to be fanned out.
+     */
+    boolean appliesTo(SubscriptionRegistry.Route route) {
+        return route.getLargestTierSize() >= mThreshold;
+    }
+
+    <TMessage extends Message> void publish(SubscriptionRegistry.Route route, TMessage message, PublisherCallback callback,
+                                            MetricsRecorder.TypeMetrics metrics, SlowSubscriberDetector detector) {
+        @SuppressWarnings("unchecked")
+        Subscription<TMessage>[] subscriptions = (Subscription<TMessage>[]) route.getSubscriptions();
+        for (int tier = 0; tier < route.getTierCount(); tier++) {
+            int start = route.getTierStart(tier);
+            int end = route.getTierStart(tier + 1);
+            if (end - start < mThreshold) {
+                for (int i = start; i < end; i++) {
+                    subscriptions[i].publish(message, callback, metrics, detector);
+                }
+            } else {
+                publishTier(subscriptions, start, end, message, callback, metrics, detector);
+            }
+        }
+    }
+
+    private <TMessage extends Message> void publishTier(Subscription<TMessage>[] subscriptions, int start, int end, TMessage message,
+                                                        PublisherCallback callback, MetricsRecorder.TypeMetrics metrics,
+                                                        SlowSubscriberDetector detector) {
+        @SuppressWarnings("unchecked")
+        Subscription<TMessage>[] inline = (Subscription<TMessage>[]) new Subscription[end - start];
+        int inlineCount = 0;
+        for (int i = start; i < end; i++) {
+            // Decided once per message, as a subscription may be demoted while the tier is delivered.
+            if (subscriptions[i].deliversOnPublisherThread()) {
+                inline[inlineCount++] = subscriptions[i];
+            } else {
+                subscriptions[i].publish(message, callback, metrics, detector);
+            }
+        }
+        if (inlineCount < mThreshold) {
+            for (int i = 0; i < inlineCount; i++) {
+                inline[i].publish(message, callback, metrics, detector);
+            }
+        } else {
+            // Tiers smaller than the pool are split down to one subscription per task.
+            int leafSize = Math.max(1, inlineCount / (mPool.getParallelism() * TASKS_PER_THREAD));
+            mPool.invoke(new FanOutTask<>(inline, 0, inlineCount, leafSize, message, callback, metrics, detector));
+        }
+    }
+
+    private static final class FanOutTask<TMessage extends Message> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Subscription<TMessage>[] mSubscriptions;
+        private final int mStart;
+        private final int mEnd;
+        private final int mLeafSize;
+        private final TMessage mMessage;
+        private final PublisherCallback mCallback;
+        private final MetricsRecorder.TypeMetrics mMetrics;
+        private final SlowSubscriberDetector mDetector;
+
+        /**
+         * @param leafSize Number of subscriptions at or below which the task stops splitting and
+         *                 delivers sequentially.
+         */
+        FanOutTask(Subscription<TMessage>[] subscriptions, int start, int end, int leafSize, TMessage message,
+                   PublisherCallback callback, MetricsRecorder.TypeMetrics metrics, SlowSubscriberDetector detector) {
+            mSubscriptions = subscriptions;
+            mStart = start;
+            mEnd = end;
+            mLeafSize = leafSize;
+            mMessage = message;
+            mCallback = callback;
+            mMetrics = metrics;
+            mDetector = detector;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= mLeafSize) {
+                for (int i = mStart; i < mEnd; i++) {
+                    mSubscriptions[i].publish(mMessage, mCallback, mMetrics, mDetector);
+                }
+            } else {
+                int middle = (mStart + mEnd) >>> 1;
+                invokeAll(new FanOutTask<>(mSubscriptions, mStart, middle, mLeafSize, mMessage, mCallback, mMetrics, mDetector),
+                        new FanOutTask<>(mSubscriptions, middle, mEnd, mLeafSize, mMessage, mCallback, mMetrics, mDetector));
+            }
+        }
+    }
+}
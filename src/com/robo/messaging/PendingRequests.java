@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Table of requests waiting for replies, keyed by the identity of the request message, so that
+ * requests equal by value are still told apart.
+ * <p>
+ * Requesters never block: a request completes its future when the replies arrive or when its
+ * timeout on the {@link TimerWheel} fires, whichever happens first. Either way the request leaves
+ * the table.
+ *
+ * @author robo-admin
+ */
+final class PendingRequests {
+
+    private final ConcurrentHashMap<RequestKey, PendingRequest> mRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a request completing with its first reply, or failing with a
+     * {@link TimeoutException} once the timeout elapses.
+     */
+    <TReply extends Message> SingleReply<TReply> register(Message request, Class<TReply> replyType, long timeout, TimeUnit unit) {
+        return register(new SingleReply<>(request, replyType), timeout, unit);
+    }
+
+    /**
+     * Registers a request completing with every reply, once as many replies as expected have
+     * arrived or with the replies received so far once the timeout elapses.
+     */
+    <TReply extends Message> AllReplies<TReply> registerAll(Message request, Class<TReply> replyType, long timeout, TimeUnit unit) {
+        return register(new AllReplies<>(request, replyType), timeout, unit);
+    }
+
+    /**
+     * Hands a reply over to a pending request.
+     *
+     * @return false if the request is not pending, e.g. it already completed or timed out, or the
+     * reply is not of the expected type.
+     */
+    boolean reply(Message request, Message reply) {
+        PendingRequest pendingRequest = mRequests.get(new RequestKey(request));
+        return null != pendingRequest && pendingRequest.offer(reply);
+    }
+
+    private <TPending extends PendingRequest> TPending register(final TPending pendingRequest, long timeout, TimeUnit unit) {
+        if (null != mRequests.putIfAbsent(pendingRequest.mKey, pendingRequest)) {
+            throw new IllegalStateException("Request is already pending");
+        }
+        pendingRequest.mTimeout = TimerWheel.instance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingRequest.expire();
+            }
+        }, timeout, unit);
+        return pendingRequest;
+    }
+
+    abstract class PendingRequest {
+        final Message mRequest;
+        final RequestKey mKey;
+        volatile TimerWheel.Timeout mTimeout;
+
+        PendingRequest(Message request) {
+            mRequest = request;
+            mKey = new RequestKey(request);
+        }
+
+        /**
+         * Called once the request has been published.
+         *
+         * @param fanOut       Number of subscriptions the request was handed to.
+         * @param replierCount Number of those expected to reply.
+         */
+        abstract void dispatched(int fanOut, int replierCount);
+
+        /**
+         * Fails the request right away, e.g. because publishing it threw.
+         */
+        abstract void fail(Throwable cause);
+
+        abstract boolean offer(Message reply);
+
+        abstract void expire();
+
+        /**
+         * Removes the request from the table and stops its timeout.
+         */
+        void finish() {
+            mRequests.remove(mKey, this);
+            TimerWheel.Timeout timeout = mTimeout;
+            if (null != timeout) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    final class SingleReply<TReply extends Message> extends PendingRequest {
+        private final Class<TReply> mReplyType;
+        private final CompletableFuture<TReply> mFuture;
+
+        SingleReply(Message request, Class<TReply> replyType) {
+            super(request);
+            mReplyType = replyType;
+            mFuture = new CompletableFuture<>();
+        }
+
+        CompletableFuture<TReply> getFuture() {
+            return mFuture;
+        }
+
+        @Override
+        void dispatched(int fanOut, int replierCount) {
+            if (fanOut == 0) {
+                fail(new IllegalStateException("No subscriber for " + mRequest.getClass().getName()));
+            }
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            finish();
+            mFuture.completeExceptionally(cause);
+        }
+
+        @Override
+        boolean offer(Message reply) {
+            if (!mReplyType.isInstance(reply)) {
+                return false;
+            }
+            finish();
+            return mFuture.complete(mReplyType.cast(reply));
+        }
+
+        @Override
+        void expire() {
+            finish();
+            mFuture.completeExceptionally(new TimeoutException("No reply to " + mRequest.getClass().getName()));
+        }
+    }
+
+    final class AllReplies<TReply extends Message> extends PendingRequest {
+        private final Class<TReply> mReplyType;
+        private final CompletableFuture<List<TReply>> mFuture;
+        private final ConcurrentLinkedQueue<TReply> mReplies;
+        private final AtomicInteger mReplyCount;
+        private volatile int mExpectedCount = -1;
+
+        AllReplies(Message request, Class<TReply> replyType) {
+            super(request);
+            mReplyType = replyType;
+            mFuture = new CompletableFuture<>();
+            mReplies = new ConcurrentLinkedQueue<>();
+            mReplyCount = new AtomicInteger();
+        }
+
+        CompletableFuture<List<TReply>> getFuture() {
+            return mFuture;
+        }
+
+        /**
+         * Sets number of replies to wait for. Replies may already have arrived before it is known.
+         */
+        @Override
+        void dispatched(int fanOut, int replierCount) {
+            mExpectedCount = replierCount;
+            if (mReplyCount.get() >= replierCount) {
+                complete();
+            }
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            finish();
+            mFuture.completeExceptionally(cause);
+        }
+
+        @Override
+        boolean offer(Message reply) {
+            if (!mReplyType.isInstance(reply) || mFuture.isDone()) {
+                return false;
+            }
+            mReplies.add(mReplyType.cast(reply));
+            // Counted before the expected count is read, while dispatched() writes the expected count
+            // before reading this one, so that at least one of them sees the last reply.
+            int replyCount = mReplyCount.incrementAndGet();
+            int expectedCount = mExpectedCount;
+            if (expectedCount >= 0 && replyCount >= expectedCount) {
+                complete();
+            }
+            return true;
+        }
+
+        @Override
+        void expire() {
+            complete();
+        }
+
+        private void complete() {
+            finish();
+            mFuture.complete(new ArrayList<>(mReplies));
+        }
+    }
+
+    /**
+     * Compares requests by identity.
+     */
+    private static final class RequestKey {
+        private final Message mRequest;
+
+        RequestKey(Message request) {
+            mRequest = request;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof RequestKey && ((RequestKey) obj).mRequest == mRequest;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mRequest);
+        }
+    }
+}
@@ -16,10 +16,27 @@
  */
 package com.robo.messaging;
 
-final class PublisherThreadPublishingStrategy<TMessage extends Message> implements PublishingStrategy<TMessage> {
+import java.util.List;
+
+final class PublisherThreadPublishingStrategy<TMessage extends Message> implements BatchPublishingStrategy<TMessage> {
+
+	private static final PublisherThreadPublishingStrategy<?> INSTANCE = new PublisherThreadPublishingStrategy<>();
+
+	/**
+	 * The strategy is stateless, so every subscription shares one instance instead of allocating its own.
+	 */
+	@SuppressWarnings("unchecked")
+	static <TMessage extends Message> PublisherThreadPublishingStrategy<TMessage> instance() {
+		return (PublisherThreadPublishingStrategy<TMessage>) INSTANCE;
+	}
 
 	@Override
 	public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message) {
 		subscriber.receive(message);
 	}
+
+	@Override
+	public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+		Subscription.receiveAll(subscriber, messages);
+	}
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.List;
+
+/**
+ * Strategy that queues messages for asynchronous delivery. Takes the publisher's callback so that
+ * overflow outcomes can be reported, and exposes the current queue depth.
+ *
+ * @author robo-admin
+ */
+interface QueuedPublishingStrategy<TMessage extends Message> extends BatchPublishingStrategy<TMessage> {
+
+    void deliverMessage(Subscriber<TMessage> subscriber, TMessage message, PublisherCallback callback);
+
+    void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages, PublisherCallback callback);
+
+    /**
+     * Indicates current number of messages waiting for delivery.
+     */
+    int getQueueDepth();
+}
@@ -0,0 +1,442 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.robo.Guard;
+
+/**
+ * Implementation of {@link com.robo.messaging.MessageBus MessageBus} that hands messages over to a
+ * dedicated dispatcher thread through a preallocated ring buffer.
+ * <p>
+ * Publishers claim a slot with a compare-and-set, fill it and mark it available; they never
+ * take a lock or allocate. The dispatcher thread picks slots up in sequence and delivers them exactly
+ * like {@link MessageBusImp} does: same registry, same priority order, same child message rules.
+ * {@link ThreadOption#PUBLISHER PUBLISHER} subscribers are therefore called on the dispatcher thread,
+ * and publisher callbacks are invoked there as well.
+ * <p>
+ * When the buffer is full, publishers wait for a free slot. Both sides wait according to the
+ * {@link WaitStrategy} given at construction. A subscriber throwing, even an {@link Error}, is
+ * reported to the dispatcher thread's uncaught exception handler and does not stop the dispatcher.
+ * <p>
+ * Requests travel through the ring buffer like any other message, so they are delivered in order
+ * with it and never concurrently with the dispatcher. The replies to wait for are counted when the
+ * dispatcher publishes the request.
+ *
+ * @author robo-admin
+ */
+public class RingBufferMessageBus implements MessageBus {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * Value of {@link #mClaimed} once the dispatcher has exited, refusing further claims.
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final MessageBusImp mBus;
+    private final Entry[] mEntries;
+    private final int mMask;
+    private final int mIndexShift;
+    /**
+     * Per slot, the round (sequence divided by buffer size) of the last message made available in it.
+     */
+    private final AtomicIntegerArray mAvailable;
+    private final AtomicLong mClaimed;
+    private final AtomicLong mDispatched;
+    private final WaitStrategy mWaitStrategy;
+    private final Thread mDispatcherThread;
+    private volatile boolean mIsRunning;
+
+    public RingBufferMessageBus() {
+        this(DEFAULT_BUFFER_SIZE, WaitStrategy.YIELD);
+    }
+
+    public RingBufferMessageBus(int bufferSize, WaitStrategy waitStrategy) {
+        this(new SequentialTokenGenerator(), Executors.newCachedThreadPool(), new InMemoryMessageRepository(), bufferSize, waitStrategy);
+    }
+
+    public RingBufferMessageBus(TokenGenerator tokenGenerator, ExecutorService executorService, MessageRepository messageRepository,
+                                int bufferSize, WaitStrategy waitStrategy) {
+        Guard.isNotNull(waitStrategy, IllegalArgumentException.class, "waitStrategy");
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+        }
+        mBus = new MessageBusImp(tokenGenerator, executorService, messageRepository);
+        mEntries = new Entry[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            mEntries[i] = new Entry();
+        }
+        mMask = bufferSize - 1;
+        mIndexShift = Integer.numberOfTrailingZeros(bufferSize);
+        mAvailable = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            mAvailable.set(i, -1);
+        }
+        mClaimed = new AtomicLong(-1);
+        mDispatched = new AtomicLong(-1);
+        mWaitStrategy = waitStrategy;
+        mIsRunning = true;
+        mDispatcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "MessageBus-Dispatcher");
+        mDispatcherThread.setDaemon(true);
+        mDispatcherThread.start();
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber) {
+        return mBus.subscribe(subscriber);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority) {
+        return mBus.subscribe(subscriber, priority);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, KeyExtractor<?> conflationKeyExtractor) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, conflationKeyExtractor);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return mBus.subscribe(subscriber, routingKey, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        return mBus.subscribe(subscriber, routingKey, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, PublishingStrategy<TMessage> publishingStrategy, boolean keepSubscriberAlive) {
+        return mBus.subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, publishingStrategy, keepSubscriberAlive);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber) {
+        return mBus.subscribe(channel, subscriber);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return mBus.subscribe(channel, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        return mBus.subscribe(channel, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+    }
+
+    @Override
+    public void setRoutingKeyExtractor(Class<? extends Message> messageType, KeyExtractor<?> keyExtractor) {
+        mBus.setRoutingKeyExtractor(messageType, keyExtractor);
+    }
+
+    @Override
+    public <TMessage extends Message> void unsubscribe(SubscriptionToken subscriptionToken) {
+        mBus.unsubscribe(subscriptionToken);
+    }
+
+    @Override
+    public int getQueueDepth(SubscriptionToken subscriptionToken) {
+        return mBus.getQueueDepth(subscriptionToken);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message) {
+        publish(message, false);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message, boolean keepInHistory) {
+        publish(message, keepInHistory, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message, boolean keepInHistory, PublisherCallback callback) {
+        Guard.isNotNull(message, IllegalArgumentException.class, "message");
+        if (Thread.currentThread() == mDispatcherThread) {
+            // Published from within delivery. Waiting for a slot here could wait forever.
+            mBus.publish(message, keepInHistory, callback);
+            return;
+        }
+        long sequence = claim();
+        mEntries[(int) sequence & mMask].set(null, message, null, keepInHistory, callback, null);
+        makeAvailable(sequence);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message) {
+        publish(channel, message, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message, PublisherCallback callback) {
+        Guard.isNotNull(channel, IllegalArgumentException.class, "channel");
+        Guard.isNotNull(message, IllegalArgumentException.class, "message");
+        if (Thread.currentThread() == mDispatcherThread) {
+            mBus.publish(channel, message, callback);
+            return;
+        }
+        long sequence = claim();
+        mEntries[(int) sequence & mMask].set(channel, message, null, false, callback, null);
+        makeAvailable(sequence);
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<TReply> request(TMessage request, Class<TReply> replyType,
+                                                                                               long timeout, TimeUnit unit) {
+        MessageBusImp.checkRequest(request, replyType, timeout, unit);
+        PendingRequests.SingleReply<TReply> pendingRequest = mBus.getPendingRequests().register(request, replyType, timeout, unit);
+        publishRequest(request, pendingRequest);
+        return pendingRequest.getFuture();
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<List<TReply>> requestAll(TMessage request, Class<TReply> replyType,
+                                                                                                         long timeout, TimeUnit unit) {
+        MessageBusImp.checkRequest(request, replyType, timeout, unit);
+        PendingRequests.AllReplies<TReply> pendingRequest = mBus.getPendingRequests().registerAll(request, replyType, timeout, unit);
+        publishRequest(request, pendingRequest);
+        return pendingRequest.getFuture();
+    }
+
+    @Override
+    public <TReply extends Message> boolean reply(Message request, TReply reply) {
+        return mBus.reply(request, reply);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages) {
+        publishAll(messages, false);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory) {
+        publishAll(messages, keepInHistory, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory, PublisherCallback callback) {
+        Guard.isNotNull(messages, IllegalArgumentException.class, "messages");
+        if (Thread.currentThread() == mDispatcherThread) {
+            mBus.publishAll(messages, keepInHistory, callback);
+            return;
+        }
+        // Copied before claiming, so the caller may reuse its collection as soon as this returns.
+        List<TMessage> copy = new ArrayList<>(messages);
+        long sequence = claim();
+        mEntries[(int) sequence & mMask].set(null, null, copy, keepInHistory, callback, null);
+        makeAvailable(sequence);
+    }
+
+    @Override
+    public <TMessage extends Message> void remove(TMessage message) {
+        mBus.remove(message);
+    }
+
+    @Override
+    public void clearHistory() {
+        mBus.clearHistory();
+    }
+
+    @Override
+    public int getHistoryCount() {
+        return mBus.getHistoryCount();
+    }
+
+    @Override
+    public void setMetricsEnabled(boolean enabled) {
+        mBus.setMetricsEnabled(enabled);
+    }
+
+    @Override
+    public MessageBusMetrics getMetrics() {
+        return mBus.getMetrics();
+    }
+
+    /**
+     * Stops accepting messages. The dispatcher thread delivers what has already been published, then exits.
+     */
+    public void shutdown() {
+        mIsRunning = false;
+    }
+
+    private void publishRequest(Message request, PendingRequests.PendingRequest pendingRequest) {
+        if (Thread.currentThread() == mDispatcherThread) {
+            mBus.dispatchRequest(request, pendingRequest);
+            return;
+        }
+        long sequence;
+        try {
+            sequence = claim();
+        } catch (IllegalStateException e) {
+            pendingRequest.fail(e);
+            throw e;
+        }
+        mEntries[(int) sequence & mMask].set(null, request, null, false, null, pendingRequest);
+        makeAvailable(sequence);
+    }
+
+    /**
+     * Claims the next sequence. A claim either happens before the dispatcher closes the ring, and
+     * is then dispatched before it exits, or fails; it can never be left behind.
+     */
+    private long claim() {
+        if (!mIsRunning) {
+            throw new IllegalStateException("Message bus has been shut down");
+        }
+        long sequence;
+        long claimed;
+        do {
+            claimed = mClaimed.get();
+            if (claimed == CLOSED) {
+                throw new IllegalStateException("Message bus has been shut down");
+            }
+            sequence = claimed + 1;
+        } while (!mClaimed.compareAndSet(claimed, sequence));
+        long wrapPoint = sequence - mEntries.length;
+        int idleCounter = 0;
+        while (mDispatched.get() < wrapPoint) {
+            idleCounter = mWaitStrategy.idle(idleCounter);
+        }
+        return sequence;
+    }
+
+    private void makeAvailable(long sequence) {
+        mAvailable.lazySet((int) sequence & mMask, (int) (sequence >>> mIndexShift));
+    }
+
+    private boolean isAvailable(long sequence) {
+        return mAvailable.get((int) sequence & mMask) == (int) (sequence >>> mIndexShift);
+    }
+
+    private void dispatchLoop() {
+        long next = mDispatched.get() + 1;
+        int idleCounter = 0;
+        while (true) {
+            if (isAvailable(next)) {
+                Entry entry = mEntries[(int) next & mMask];
+                try {
+                    entry.dispatch(mBus);
+                } catch (Throwable e) {
+                    // Nobody up the stack to report to; keep the dispatcher alive for other messages,
+                    // otherwise publishers would wait forever on a full ring.
+                    Thread.UncaughtExceptionHandler handler = mDispatcherThread.getUncaughtExceptionHandler();
+                    if (null != handler) {
+                        handler.uncaughtException(mDispatcherThread, e);
+                    }
+                } finally {
+                    entry.clear();
+                    mDispatched.lazySet(next);
+                }
+                next++;
+                idleCounter = 0;
+            } else if (!mIsRunning && isDrained(next)) {
+                return;
+            } else {
+                idleCounter = mWaitStrategy.idle(idleCounter);
+            }
+        }
+    }
+
+    /**
+     * Closes the ring if every claimed sequence before {@code next} has been dispatched.
+     */
+    private boolean isDrained(long next) {
+        long claimed = mClaimed.get();
+        return next > claimed && mClaimed.compareAndSet(claimed, CLOSED);
+    }
+
+    /**
+     * A preallocated slot of the ring buffer. Written by the publisher that claimed it, read by the
+     * dispatcher once the slot is made available.
+     */
+    private static final class Entry {
+        private String mChannel;
+        private Message mMessage;
+        private Collection<? extends Message> mMessages;
+        private boolean mKeepInHistory;
+        private PublisherCallback mCallback;
+        private PendingRequests.PendingRequest mPendingRequest;
+
+        void set(String channel, Message message, Collection<? extends Message> messages, boolean keepInHistory, PublisherCallback callback,
+                 PendingRequests.PendingRequest pendingRequest) {
+            mChannel = channel;
+            mMessage = message;
+            mMessages = messages;
+            mKeepInHistory = keepInHistory;
+            mCallback = callback;
+            mPendingRequest = pendingRequest;
+        }
+
+        @SuppressWarnings("unchecked")
+        void dispatch(MessageBusImp bus) {
+            if (null != mPendingRequest) {
+                bus.dispatchRequest(mMessage, mPendingRequest);
+            } else if (null != mChannel) {
+                bus.publish(mChannel, mMessage, mCallback);
+            } else if (null != mMessage) {
+                bus.publish(mMessage, mKeepInHistory, mCallback);
+            } else {
+                bus.publishAll((Collection<Message>) mMessages, mKeepInHistory, mCallback);
+            }
+        }
+
+        void clear() {
+            set(null, null, null, false, null, null);
+        }
+    }
+}
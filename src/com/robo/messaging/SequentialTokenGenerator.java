@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Generates tokens based on a sequence number unique within the process, so that tokens of
+ * different buses never compare equal.
+ * <p>
+ * Each thread reserves a block of sequence numbers from a counter shared by all generators and
+ * hands them out without further synchronization, so threads subscribing at a high rate do not
+ * contend on the counter.
+ *
+ * @author robo-admin
+ */
+public class SequentialTokenGenerator implements TokenGenerator {
+
+    private static final ThreadLocalBlockSequence SEQUENCE = new ThreadLocalBlockSequence(0, 1024);
+
+    @Override
+    public SubscriptionToken generateToken(Subscriber<?> subscriber) {
+        return new SequentialToken(SEQUENCE.next(), MessageTypes.of(subscriber));
+    }
+}
@@ -0,0 +1,490 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.robo.Guard;
+
+/**
+ * Implementation of {@link com.robo.messaging.MessageBus MessageBus} partitioned into shards, each a
+ * {@link RingBufferMessageBus} with its own registry, history and dispatcher thread.
+ * <p>
+ * A message goes to the shard its routing key hashes to, using the extractor registered with
+ * {@link #setRoutingKeyExtractor(Class, KeyExtractor)}; a message without a key goes to the shard
+ * its class hashes to. All messages for one key are therefore dispatched in order by one thread,
+ * while different keys are dispatched in parallel. Order between messages of different keys is
+ * not preserved.
+ * <p>
+ * Subscriptions without a routing key are made on every shard, so a
+ * {@link ThreadOption#PUBLISHER PUBLISHER} subscriber may be called concurrently for different keys
+ * and must be thread safe. A publishing strategy passed to
+ * {@link #subscribe(Subscriber, int, boolean, boolean, PublishingStrategy, boolean)} is shared by
+ * the shards and must be thread safe as well. Subscriptions with a routing key are made on the
+ * shard of their key only.
+ *
+ * @author robo-admin
+ */
+public class ShardedMessageBus implements MessageBus {
+
+    private final RingBufferMessageBus[] mShards;
+    /**
+     * Holds the routing key extractors only, resolved per message class by its super type lookup.
+     */
+    private final SubscriptionRegistry mKeyExtractors;
+
+    public ShardedMessageBus() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedMessageBus(int shardCount) {
+        this(shardCount, RingBufferMessageBus.DEFAULT_BUFFER_SIZE, WaitStrategy.PARK);
+    }
+
+    public ShardedMessageBus(int shardCount, int bufferSize, WaitStrategy waitStrategy) {
+        this(shardCount, new SequentialTokenGenerator(), Executors.newCachedThreadPool(), bufferSize, waitStrategy);
+    }
+
+    /**
+     * @param shardCount      Number of shards.
+     * @param tokenGenerator  Generator of subscription tokens, shared by the shards.
+     * @param executorService Executor for background subscribers, shared by the shards.
+     * @param bufferSize      Ring buffer size of each shard, a power of 2.
+     * @param waitStrategy    How the publishers and dispatcher of each shard wait.
+     */
+    public ShardedMessageBus(int shardCount, TokenGenerator tokenGenerator, ExecutorService executorService,
+                             int bufferSize, WaitStrategy waitStrategy) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount");
+        }
+        mShards = new RingBufferMessageBus[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mShards[i] = new RingBufferMessageBus(tokenGenerator, executorService, new InMemoryMessageRepository(), bufferSize, waitStrategy);
+        }
+        mKeyExtractors = new SubscriptionRegistry();
+    }
+
+    /**
+     * Gets number of shards.
+     */
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber) {
+        return subscribe(subscriber, 0);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority) {
+        return subscribe(subscriber, priority, true);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages) {
+        return subscribe(subscriber, priority, acceptsChildMessages, false);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages) {
+        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, ThreadOption.PUBLISHER);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption) {
+        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, false);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        SubscriptionToken[] tokens = new SubscriptionToken[mShards.length];
+        for (int i = 0; i < mShards.length; i++) {
+            tokens[i] = mShards[i].subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+        }
+        return new ShardedSubscriptionToken(tokens[0].getMessageType(), tokens);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, KeyExtractor<?> conflationKeyExtractor) {
+        SubscriptionToken[] tokens = new SubscriptionToken[mShards.length];
+        for (int i = 0; i < mShards.length; i++) {
+            tokens[i] = mShards[i].subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, conflationKeyExtractor);
+        }
+        return new ShardedSubscriptionToken(tokens[0].getMessageType(), tokens);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(subscriber, routingKey, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, Object routingKey, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        Guard.isNotNull(routingKey, IllegalArgumentException.class, "routingKey");
+        SubscriptionToken[] tokens = new SubscriptionToken[mShards.length];
+        int shard = shardOf(routingKey);
+        tokens[shard] = mShards[shard].subscribe(subscriber, routingKey, priority, acceptsChildMessages, receiveHistoricMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+        return new ShardedSubscriptionToken(tokens[shard].getMessageType(), tokens);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, boolean receiveHistoricMessages, PublishingStrategy<TMessage> publishingStrategy, boolean keepSubscriberAlive) {
+        SubscriptionToken[] tokens = new SubscriptionToken[mShards.length];
+        for (int i = 0; i < mShards.length; i++) {
+            tokens[i] = mShards[i].subscribe(subscriber, priority, acceptsChildMessages, receiveHistoricMessages, publishingStrategy, keepSubscriberAlive);
+        }
+        return new ShardedSubscriptionToken(tokens[0].getMessageType(), tokens);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber) {
+        return subscribe(channel, subscriber, 0, true, ThreadOption.PUBLISHER, false);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive) {
+        return subscribe(channel, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public <TMessage extends Message> SubscriptionToken subscribe(String channel, Subscriber<TMessage> subscriber, int priority, boolean acceptsChildMessages, ThreadOption threadOption, boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        SubscriptionToken[] tokens = new SubscriptionToken[mShards.length];
+        for (int i = 0; i < mShards.length; i++) {
+            tokens[i] = mShards[i].subscribe(channel, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, capacity, overflowPolicy);
+        }
+        return new ShardedSubscriptionToken(tokens[0].getMessageType(), tokens);
+    }
+
+    @Override
+    public <TMessage extends Message> void unsubscribe(SubscriptionToken subscriptionToken) {
+        if (subscriptionToken instanceof ShardedSubscriptionToken) {
+            ShardedSubscriptionToken shardedToken = (ShardedSubscriptionToken) subscriptionToken;
+            for (int i = 0; i < mShards.length; i++) {
+                SubscriptionToken token = shardedToken.getToken(i);
+                if (null != token) {
+                    mShards[i].unsubscribe(token);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setRoutingKeyExtractor(Class<? extends Message> messageType, KeyExtractor<?> keyExtractor) {
+        Guard.isNotNull(messageType, IllegalArgumentException.class, "messageType");
+        mKeyExtractors.setKeyExtractor(messageType, keyExtractor);
+        for (RingBufferMessageBus shard : mShards) {
+            shard.setRoutingKeyExtractor(messageType, keyExtractor);
+        }
+    }
+
+    @Override
+    public int getQueueDepth(SubscriptionToken subscriptionToken) {
+        int queueDepth = 0;
+        if (subscriptionToken instanceof ShardedSubscriptionToken) {
+            ShardedSubscriptionToken shardedToken = (ShardedSubscriptionToken) subscriptionToken;
+            for (int i = 0; i < mShards.length; i++) {
+                SubscriptionToken token = shardedToken.getToken(i);
+                if (null != token) {
+                    queueDepth += mShards[i].getQueueDepth(token);
+                }
+            }
+        }
+        return queueDepth;
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message) {
+        publish(message, false);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message, boolean keepInHistory) {
+        publish(message, keepInHistory, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(TMessage message, boolean keepInHistory, PublisherCallback callback) {
+        Guard.isNotNull(message, IllegalArgumentException.class, "message");
+        shardFor(message).publish(message, keepInHistory, callback);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message) {
+        publish(channel, message, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publish(String channel, TMessage message, PublisherCallback callback) {
+        Guard.isNotNull(message, IllegalArgumentException.class, "message");
+        shardFor(message).publish(channel, message, callback);
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<TReply> request(TMessage request, Class<TReply> replyType,
+                                                                                               long timeout, TimeUnit unit) {
+        Guard.isNotNull(request, IllegalArgumentException.class, "request");
+        return shardFor(request).request(request, replyType, timeout, unit);
+    }
+
+    @Override
+    public <TMessage extends Message, TReply extends Message> CompletableFuture<List<TReply>> requestAll(TMessage request, Class<TReply> replyType,
+                                                                                                         long timeout, TimeUnit unit) {
+        Guard.isNotNull(request, IllegalArgumentException.class, "request");
+        return shardFor(request).requestAll(request, replyType, timeout, unit);
+    }
+
+    @Override
+    public <TReply extends Message> boolean reply(Message request, TReply reply) {
+        Guard.isNotNull(request, IllegalArgumentException.class, "request");
+        return shardFor(request).reply(request, reply);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages) {
+        publishAll(messages, false);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory) {
+        publishAll(messages, keepInHistory, null);
+    }
+
+    @Override
+    public <TMessage extends Message> void publishAll(Collection<TMessage> messages, boolean keepInHistory, PublisherCallback callback) {
+        Guard.isNotNull(messages, IllegalArgumentException.class, "messages");
+        List<List<TMessage>> batches = new ArrayList<>(mShards.length);
+        for (int i = 0; i < mShards.length; i++) {
+            batches.add(null);
+        }
+        for (TMessage message : messages) {
+            Guard.isNotNull(message, IllegalArgumentException.class, "message");
+            int shard = shardOf(message);
+            List<TMessage> batch = batches.get(shard);
+            if (null == batch) {
+                batch = new ArrayList<>();
+                batches.set(shard, batch);
+            }
+            batch.add(message);
+        }
+        for (int i = 0; i < mShards.length; i++) {
+            List<TMessage> batch = batches.get(i);
+            if (null != batch) {
+                mShards[i].publishAll(batch, keepInHistory, callback);
+            }
+        }
+    }
+
+    @Override
+    public <TMessage extends Message> void remove(TMessage message) {
+        // The key or the key extractor may have changed since the message was stored,
+        // so it is removed from every shard.
+        for (RingBufferMessageBus shard : mShards) {
+            shard.remove(message);
+        }
+    }
+
+    @Override
+    public void clearHistory() {
+        for (RingBufferMessageBus shard : mShards) {
+            shard.clearHistory();
+        }
+    }
+
+    @Override
+    public int getHistoryCount() {
+        int historyCount = 0;
+        for (RingBufferMessageBus shard : mShards) {
+            historyCount += shard.getHistoryCount();
+        }
+        return historyCount;
+    }
+
+    @Override
+    public void setMetricsEnabled(boolean enabled) {
+        for (RingBufferMessageBus shard : mShards) {
+            shard.setMetricsEnabled(enabled);
+        }
+    }
+
+    @Override
+    public MessageBusMetrics getMetrics() {
+        List<MessageBusMetrics> metrics = new ArrayList<>(mShards.length);
+        for (RingBufferMessageBus shard : mShards) {
+            MessageBusMetrics shardMetrics = shard.getMetrics();
+            if (null != shardMetrics) {
+                metrics.add(shardMetrics);
+            }
+        }
+        return metrics.isEmpty() ? null : new ShardedMetrics(metrics);
+    }
+
+    /**
+     * Stops accepting messages. Each shard delivers what has already been published to it, then
+     * its dispatcher thread exits.
+     */
+    public void shutdown() {
+        for (RingBufferMessageBus shard : mShards) {
+            shard.shutdown();
+        }
+    }
+
+    private RingBufferMessageBus shardFor(Message message) {
+        return mShards[shardOf(message)];
+    }
+
+    private int shardOf(Message message) {
+        Object key = extractKey(message);
+        return shardOf(null == key ? message.getClass() : key);
+    }
+
+    private int shardOf(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % mShards.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object extractKey(Message message) {
+        KeyExtractor<Object> keyExtractor = (KeyExtractor<Object>) mKeyExtractors.getKeyExtractor(message.getClass());
+        return null == keyExtractor ? null : keyExtractor.extractKey(message.getContent());
+    }
+
+    /**
+     * Metrics of all shards, added up.
+     */
+    private static final class ShardedMetrics implements MessageBusMetrics {
+        private final List<MessageBusMetrics> mShardMetrics;
+
+        ShardedMetrics(List<MessageBusMetrics> shardMetrics) {
+            mShardMetrics = shardMetrics;
+        }
+
+        @Override
+        public Set<Class<? extends Message>> getMessageTypes() {
+            Set<Class<? extends Message>> messageTypes = new HashSet<>();
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                messageTypes.addAll(metrics.getMessageTypes());
+            }
+            return messageTypes;
+        }
+
+        @Override
+        public long getPublishCount(Class<? extends Message> messageType) {
+            long count = 0;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                count += metrics.getPublishCount(messageType);
+            }
+            return count;
+        }
+
+        @Override
+        public long getNoSubscriberCount(Class<? extends Message> messageType) {
+            long count = 0;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                count += metrics.getNoSubscriberCount(messageType);
+            }
+            return count;
+        }
+
+        @Override
+        public Histogram getFanOut(Class<? extends Message> messageType) {
+            Histogram fanOut = null;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                fanOut = add(fanOut, metrics.getFanOut(messageType));
+            }
+            return fanOut;
+        }
+
+        @Override
+        public Set<String> getPublishingStrategies(Class<? extends Message> messageType) {
+            Set<String> publishingStrategies = new HashSet<>();
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                publishingStrategies.addAll(metrics.getPublishingStrategies(messageType));
+            }
+            return publishingStrategies;
+        }
+
+        @Override
+        public Histogram getQueueTime(Class<? extends Message> messageType, String publishingStrategy) {
+            Histogram queueTime = null;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                queueTime = add(queueTime, metrics.getQueueTime(messageType, publishingStrategy));
+            }
+            return queueTime;
+        }
+
+        @Override
+        public Histogram getExecutionTime(Class<? extends Message> messageType, String publishingStrategy) {
+            Histogram executionTime = null;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                executionTime = add(executionTime, metrics.getExecutionTime(messageType, publishingStrategy));
+            }
+            return executionTime;
+        }
+
+        @Override
+        public long getPurgedSubscriberCount(Class<? extends Message> messageType) {
+            long count = 0;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                count += metrics.getPurgedSubscriberCount(messageType);
+            }
+            return count;
+        }
+
+        @Override
+        public long getReplayDropCount(Class<? extends Message> messageType) {
+            long count = 0;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                count += metrics.getReplayDropCount(messageType);
+            }
+            return count;
+        }
+
+        @Override
+        public int getHistorySize(Class<? extends Message> messageType) {
+            int size = 0;
+            for (MessageBusMetrics metrics : mShardMetrics) {
+                size += metrics.getHistorySize(messageType);
+            }
+            return size;
+        }
+
+        private static Histogram add(Histogram sum, Histogram histogram) {
+            if (null == histogram) {
+                return sum;
+            }
+            if (null == sum) {
+                sum = new Histogram();
+            }
+            sum.add(histogram);
+            return sum;
+        }
+    }
+}
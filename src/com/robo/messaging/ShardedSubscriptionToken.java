@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.Arrays;
+
+/**
+ * Token of a subscription made on a {@link ShardedMessageBus}: the tokens of the subscriptions
+ * made on its shards, indexed by shard, with null for shards not subscribed on.
+ *
+ * @author robo-admin
+ */
+final class ShardedSubscriptionToken extends SubscriptionToken {
+    private final SubscriptionToken[] mTokens;
+
+    ShardedSubscriptionToken(Class<? extends Message> messageType, SubscriptionToken[] tokens) {
+        super(messageType);
+        mTokens = tokens;
+    }
+
+    /**
+     * Gets the token of the subscription on a shard, or null if not subscribed on it.
+     */
+    SubscriptionToken getToken(int shard) {
+        return mTokens[shard];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (null == obj || !(obj instanceof ShardedSubscriptionToken)) {
+            return false;
+        }
+        return Arrays.equals(((ShardedSubscriptionToken) obj).mTokens, mTokens);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mTokens);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Flags {@link ThreadOption#PUBLISHER PUBLISHER} subscriptions whose subscriber exceeds a time
+ * budget per message and optionally demotes them onto a background lane of their own, so that a
+ * slow subscriber no longer delays the publisher and the subscribers after it.
+ * <p>
+ * A subscription is flagged once. Each flagging publishes a {@link SlowSubscriberMessage} on the bus.
+ *
+ * @author robo-admin
+ */
+final class SlowSubscriberDetector {
+
+    private final MessageBus mBus;
+    private final long mBudgetNanos;
+    private final boolean mDemote;
+    private final ExecutorService mLaneExecutorService;
+
+    SlowSubscriberDetector(MessageBus bus, long budgetNanos, boolean demote, ExecutorService laneExecutorService) {
+        mBus = bus;
+        mBudgetNanos = budgetNanos;
+        mDemote = demote;
+        mLaneExecutorService = laneExecutorService;
+    }
+
+    /**
+     * Checks how long an inline delivery took.
+     *
+     * @param elapsedNanos Time spent delivering.
+     * @param count        Number of messages delivered.
+     */
+    <TMessage extends Message> void delivered(Subscription<TMessage> subscription, long elapsedNanos, int count) {
+        if (elapsedNanos / count <= mBudgetNanos || !subscription.markSlow()) {
+            return;
+        }
+        if (mDemote) {
+            // Each demoted subscription gets its own mailbox, so slow subscribers do not queue behind each other.
+            // The lane never drains on the publisher's thread, which is what demotion protects.
+            subscription.demote(new BackgroundPublishingStrategy<TMessage>(mLaneExecutorService, Mailbox.UNBOUNDED,
+                    OverflowPolicy.BLOCK, false));
+        }
+        mBus.publish(new SlowSubscriberMessage(subscription.getToken(), elapsedNanos / count, mDemote));
+    }
+
+    /**
+     * Creates the executor backing the lanes of demoted subscriptions, kept apart from the bus's
+     * executor so that demoted subscribers cannot starve regular background subscribers.
+     */
+    static ExecutorService newLaneExecutorService() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MessageBus-SlowLane");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
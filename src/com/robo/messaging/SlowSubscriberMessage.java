@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+/**
+ * Published by a {@link MessageBusImp} the first time a {@link ThreadOption#PUBLISHER PUBLISHER}
+ * subscriber takes longer than the configured budget to receive a message. The content is the
+ * token of the offending subscription.
+ *
+ * @author robo-admin
+ * @see MessageBusImp#setSlowSubscriberDetection(long, java.util.concurrent.TimeUnit, boolean)
+ */
+public class SlowSubscriberMessage extends AbstractMessage<SubscriptionToken> {
+
+    private final long mElapsedNanos;
+    private final boolean mIsDemoted;
+
+    public SlowSubscriberMessage(SubscriptionToken token, long elapsedNanos, boolean demoted) {
+        super(token);
+        mElapsedNanos = elapsedNanos;
+        mIsDemoted = demoted;
+    }
+
+    /**
+     * Gets nanoseconds the subscriber spent receiving the message that exceeded the budget.
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * Indicates if the subscription has been moved off the publisher's thread onto its own
+     * background lane as a result.
+     */
+    public boolean isDemoted() {
+        return mIsDemoted;
+    }
+}
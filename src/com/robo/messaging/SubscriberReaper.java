@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * Reclaims subscriptions of weakly referenced subscribers once they have been garbage collected.
+ * <p>
+ * Every {@link WeakSubscriberReference} is registered with a single queue shared by all message
+ * buses. A daemon thread blocks on that queue and removes each cleared subscription from the
+ * registry it belongs to, so that dead subscriptions are dropped off the publish path and do not
+ * pile up under message types that are rarely published.
+ *
+ * @author robo-admin
+ */
+final class SubscriberReaper implements Runnable {
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    static {
+        Thread thread = new Thread(new SubscriberReaper(), "MessageBus-SubscriberReaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private SubscriberReaper() {
+    }
+
+    static ReferenceQueue<Object> queue() {
+        return QUEUE;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Reference<?> reference = QUEUE.remove();
+                if (reference instanceof WeakSubscriberReference) {
+                    ((WeakSubscriberReference<?>) reference).reclaim();
+                }
+            } catch (InterruptedException e) {
+                // Daemon thread, never meant to stop. Keep serving the queue.
+            } catch (RuntimeException e) {
+                // A failing registry must not stop reclamation for the other ones.
+            }
+        }
+    }
+}
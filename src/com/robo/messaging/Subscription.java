@@ -15,17 +15,31 @@
  */
 package com.robo.messaging;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 final class Subscription<TMessage extends Message> implements Comparable<Subscription> {
-    private SubscriptionToken mToken;
-    private PublishingStrategy<TMessage> mPublishingStrategy;
-    private SubscriberReference<TMessage> mSubscriberReference;
-    private int mPriority;
-    private boolean mAcceptsChildMessages;
+    private final SubscriptionToken mToken;
+    private volatile PublishingStrategy<TMessage> mPublishingStrategy;
+    private final SubscriberReference<TMessage> mSubscriberReference;
+    private final int mPriority;
+    private final boolean mAcceptsChildMessages;
+    private final Object mRoutingKey;
+    private volatile ReplayGate<TMessage> mReplayGate;
+    private boolean mIsSlow;
 
     public Subscription(SubscriptionToken token, SubscriberReference<TMessage> subscriberReference, int priority,
                         boolean acceptsChildrenMessages, PublishingStrategy<TMessage> publishingStrategy) {
+        this(token, subscriberReference, null, priority, acceptsChildrenMessages, publishingStrategy);
+    }
+
+    public Subscription(SubscriptionToken token, SubscriberReference<TMessage> subscriberReference, Object routingKey, int priority,
+                        boolean acceptsChildrenMessages, PublishingStrategy<TMessage> publishingStrategy) {
         mToken = token;
         mSubscriberReference = subscriberReference;
+        mRoutingKey = routingKey;
         mPriority = priority;
         mAcceptsChildMessages = acceptsChildrenMessages;
         mPublishingStrategy = publishingStrategy;
@@ -39,19 +53,288 @@ final class Subscription<TMessage extends Message> implements Comparable<Subscri
         return mToken;
     }
 
-    public void publish(TMessage message) {
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Gets the routing key messages must carry to reach this subscription, or null if it receives
+     * messages regardless of their key.
+     */
+    public Object getRoutingKey() {
+        return mRoutingKey;
+    }
+
+    /**
+     * Indicates current number of messages waiting for delivery to the subscriber. Always 0 for
+     * subscriptions that deliver synchronously.
+     */
+    @SuppressWarnings("unchecked")
+    public int getQueueDepth() {
+        PublishingStrategy<TMessage> publishingStrategy = mPublishingStrategy;
+        return publishingStrategy instanceof QueuedPublishingStrategy
+                ? ((QueuedPublishingStrategy<TMessage>) publishingStrategy).getQueueDepth() : 0;
+    }
+
+    /**
+     * Indicates if the subscriber has been flagged for exceeding the slow subscriber budget.
+     */
+    synchronized boolean isSlow() {
+        return mIsSlow;
+    }
+
+    /**
+     * Flags the subscriber as slow.
+     *
+     * @return false if it had already been flagged.
+     */
+    synchronized boolean markSlow() {
+        if (mIsSlow) {
+            return false;
+        }
+        mIsSlow = true;
+        return true;
+    }
+
+    /**
+     * Replaces the publishing strategy of the subscription. Deliveries already handed to the old
+     * strategy complete there; later ones go through the new strategy.
+     */
+    void demote(PublishingStrategy<TMessage> publishingStrategy) {
+        mPublishingStrategy = publishingStrategy;
+    }
+
+    /**
+     * Indicates if messages are currently delivered on the publisher's thread.
+     */
+    boolean deliversOnPublisherThread() {
+        return mPublishingStrategy instanceof PublisherThreadPublishingStrategy;
+    }
+
+    /**
+     * Indicates if the subscriber is still reachable. Only for paths off the publishing hot path,
+     * which resolves the subscriber as part of delivery.
+     */
+    boolean isSubscriberAlive() {
+        return null != mSubscriberReference.getSubscriber();
+    }
+
+    /**
+     * Delivers a message to the subscriber. The subscriber is resolved exactly once, so a
+     * weakly referenced subscriber is never looked up twice per delivery.
+     *
+     * @return false if the subscriber has been garbage collected and is waiting to be reclaimed,
+     * in which case nothing was delivered.
+     */
+    public boolean publish(TMessage message) {
+        return publish(message, null);
+    }
+
+    /**
+     * Delivers a message to the subscriber, reporting queue overflow outcomes to the publisher's callback.
+     */
+    public boolean publish(TMessage message, PublisherCallback callback) {
+        return publish(message, callback, null, null);
+    }
+
+    /**
+     * Delivers a message to the subscriber, timing the delivery if metrics are given and checking
+     * an inline delivery against the slow subscriber budget if a detector is given.
+     */
+    @SuppressWarnings("unchecked")
+    boolean publish(TMessage message, PublisherCallback callback, MetricsRecorder.TypeMetrics metrics, SlowSubscriberDetector detector) {
+        Subscriber<TMessage> subscriber = mSubscriberReference.getSubscriber();
+        if (null == subscriber) {
+            return false;
+        }
+        ReplayGate<TMessage> replayGate = mReplayGate;
+        if (null != replayGate && replayGate.hold(message)) {
+            return true;
+        }
+        PublishingStrategy<TMessage> publishingStrategy = mPublishingStrategy;
+        if (null != metrics) {
+            subscriber = metrics.timed(subscriber, publishingStrategy);
+        }
+        if (null != detector && publishingStrategy instanceof PublisherThreadPublishingStrategy) {
+            long start = System.nanoTime();
+            publishingStrategy.deliverMessage(subscriber, message);
+            detector.delivered(this, System.nanoTime() - start, 1);
+        } else if (null != callback && publishingStrategy instanceof QueuedPublishingStrategy) {
+            ((QueuedPublishingStrategy<TMessage>) publishingStrategy).deliverMessage(subscriber, message, callback);
+        } else {
+            publishingStrategy.deliverMessage(subscriber, message);
+        }
+        return true;
+    }
+
+    /**
+     * Delivers a batch of messages, all of the same concrete type, to the subscriber.
+     *
+     * @return false if the subscriber has been garbage collected and nothing was delivered.
+     */
+    public boolean publishAll(List<TMessage> messages) {
+        return publishAll(messages, null);
+    }
+
+    /**
+     * Delivers a batch of messages, reporting queue overflow outcomes to the publisher's callback.
+     */
+    public boolean publishAll(List<TMessage> messages, PublisherCallback callback) {
+        return publishAll(messages, callback, null, null);
+    }
+
+    /**
+     * Delivers a batch of messages, timing the delivery if metrics are given and checking an inline
+     * delivery against the slow subscriber budget if a detector is given.
+     */
+    boolean publishAll(List<TMessage> messages, PublisherCallback callback, MetricsRecorder.TypeMetrics metrics, SlowSubscriberDetector detector) {
+        Subscriber<TMessage> subscriber = mSubscriberReference.getSubscriber();
+        if (null == subscriber) {
+            return false;
+        }
+        ReplayGate<TMessage> replayGate = mReplayGate;
+        if (null != replayGate && replayGate.holdAll(messages)) {
+            return true;
+        }
+        PublishingStrategy<TMessage> publishingStrategy = mPublishingStrategy;
+        if (null != metrics) {
+            subscriber = metrics.timed(subscriber, publishingStrategy);
+        }
+        if (null != detector && publishingStrategy instanceof PublisherThreadPublishingStrategy && !messages.isEmpty()) {
+            long start = System.nanoTime();
+            deliverAll(publishingStrategy, subscriber, messages, callback);
+            detector.delivered(this, System.nanoTime() - start, messages.size());
+        } else {
+            deliverAll(publishingStrategy, subscriber, messages, callback);
+        }
+        return true;
+    }
+
+    /**
+     * Starts replaying historic messages. Until {@link #endReplay()}, live messages are held back so
+     * that the subscriber receives them after the history. Must be called before the subscription
+     * is registered.
+     */
+    void beginReplay() {
+        mReplayGate = new ReplayGate<>();
+    }
+
+    /**
+     * Delivers a chunk of historic messages through the publishing strategy. Messages that are also
+     * being held back as live messages are skipped here and delivered in their live position instead,
+     * and only the messages actually replayed are flagged as historic.
+     *
+     * @param callback Told about overflow outcomes of a bounded queue, or null.
+     */
+    void replay(List<TMessage> messages, PublisherCallback callback) {
         Subscriber<TMessage> subscriber = mSubscriberReference.getSubscriber();
         if (null != subscriber) {
-            mPublishingStrategy.deliverMessage(subscriber, message);
+            List<TMessage> historicMessages = mReplayGate.withoutHeld(messages);
+            for (int i = 0; i < historicMessages.size(); i++) {
+                TMessage message = historicMessages.get(i);
+                if (!message.isHistoric()) {
+                    message.setHistoric(true);
+                }
+            }
+            if (!historicMessages.isEmpty()) {
+                deliverAll(mPublishingStrategy, subscriber, historicMessages, callback);
+            }
         }
     }
 
-    public boolean isSubscriberAlive() {
-        return null != mSubscriberReference.getSubscriber();
+    /**
+     * Ends replaying historic messages and delivers live messages held back in the meantime, in order.
+     */
+    void endReplay() {
+        ReplayGate<TMessage> replayGate = mReplayGate;
+        synchronized (replayGate) {
+            List<TMessage> heldMessages = replayGate.open();
+            Subscriber<TMessage> subscriber = mSubscriberReference.getSubscriber();
+            if (null != subscriber && !heldMessages.isEmpty()) {
+                // Still under the gate's lock, so a live message arriving now cannot overtake these.
+                deliverAll(mPublishingStrategy, subscriber, heldMessages, null);
+            }
+        }
+        mReplayGate = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <TMessage extends Message> void deliverAll(PublishingStrategy<TMessage> publishingStrategy, Subscriber<TMessage> subscriber,
+                                                              List<TMessage> messages, PublisherCallback callback) {
+        if (null != callback && publishingStrategy instanceof QueuedPublishingStrategy) {
+            ((QueuedPublishingStrategy<TMessage>) publishingStrategy).deliverMessages(subscriber, messages, callback);
+        } else if (publishingStrategy instanceof BatchPublishingStrategy) {
+            ((BatchPublishingStrategy<TMessage>) publishingStrategy).deliverMessages(subscriber, messages);
+        } else {
+            for (int i = 0; i < messages.size(); i++) {
+                publishingStrategy.deliverMessage(subscriber, messages.get(i));
+            }
+        }
+    }
+
+    /**
+     * Hands a batch over to a subscriber on the current thread, in a single call if the subscriber
+     * is a {@link BatchSubscriber}.
+     */
+    @SuppressWarnings("unchecked")
+    static <TMessage extends Message> void receiveAll(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+        if (subscriber instanceof BatchSubscriber) {
+            ((BatchSubscriber<TMessage>) subscriber).receiveAll(messages);
+        } else {
+            for (int i = 0; i < messages.size(); i++) {
+                subscriber.receive(messages.get(i));
+            }
+        }
     }
 
     @Override
     public int compareTo(Subscription o) {
         return Integer.compare(mPriority, o.mPriority);
     }
+
+    /**
+     * Holds back live messages of a subscription while its historic messages are being replayed.
+     */
+    private static final class ReplayGate<TMessage extends Message> {
+        private final List<TMessage> mHeldMessages = new ArrayList<>();
+        private final Set<TMessage> mHeldMessageSet = new HashSet<>();
+        private boolean mIsOpen;
+
+        synchronized boolean hold(TMessage message) {
+            if (mIsOpen) {
+                return false;
+            }
+            mHeldMessages.add(message);
+            mHeldMessageSet.add(message);
+            return true;
+        }
+
+        synchronized boolean holdAll(List<TMessage> messages) {
+            if (mIsOpen) {
+                return false;
+            }
+            mHeldMessages.addAll(messages);
+            mHeldMessageSet.addAll(messages);
+            return true;
+        }
+
+        synchronized List<TMessage> withoutHeld(List<TMessage> messages) {
+            if (mHeldMessageSet.isEmpty()) {
+                return messages;
+            }
+            List<TMessage> result = new ArrayList<>(messages.size());
+            for (TMessage message : messages) {
+                if (!mHeldMessageSet.contains(message)) {
+                    result.add(message);
+                }
+            }
+            return result;
+        }
+
+        synchronized List<TMessage> open() {
+            mIsOpen = true;
+            mHeldMessageSet.clear();
+            return mHeldMessages;
+        }
+    }
 }
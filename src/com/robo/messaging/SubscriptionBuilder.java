@@ -15,6 +15,7 @@
  */
 package com.robo.messaging;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 import android.os.Looper;
@@ -22,42 +23,145 @@ import android.os.Looper;
 final class SubscriptionBuilder {
 
     private ExecutorService mExecutorService;
-    private final Looper mMainLooper = Looper.getMainLooper();
+    private SubscriptionRegistry mRegistry;
+    private volatile Looper mMainLooper;
+    private volatile ExecutorService mVirtualThreadExecutorService;
+    private volatile Executor mMainThreadExecutor;
 
-    public SubscriptionBuilder(ExecutorService executorService) {
+    public SubscriptionBuilder(ExecutorService executorService, SubscriptionRegistry registry) {
         mExecutorService = executorService;
+        mRegistry = registry;
     }
 
     public <TMessage extends Message> Subscription<TMessage> build(SubscriptionToken token, Subscriber<TMessage> subscriber, int priority,
                                                                    boolean acceptsChildMessages, ThreadOption threadOption,
                                                                    boolean keepSubscriberAlive) {
-        PublishingStrategy<TMessage> publishingStrategy;
+        return build(token, subscriber, priority, acceptsChildMessages, threadOption, keepSubscriberAlive, Mailbox.UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    public <TMessage extends Message> Subscription<TMessage> build(SubscriptionToken token, Subscriber<TMessage> subscriber, int priority,
+                                                                   boolean acceptsChildMessages, ThreadOption threadOption,
+                                                                   boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        return build(token, subscriber, priority, acceptsChildMessages,
+                this.<TMessage>createPublishingStrategy(threadOption, capacity, overflowPolicy), keepSubscriberAlive);
+    }
+
+    public <TMessage extends Message> Subscription<TMessage> build(SubscriptionToken token, Subscriber<TMessage> subscriber, Object routingKey,
+                                                                   int priority, boolean acceptsChildMessages, ThreadOption threadOption,
+                                                                   boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        return new Subscription<>(token,
+                createSubscriberReference(token, subscriber, keepSubscriberAlive),
+                routingKey, priority, acceptsChildMessages,
+                this.<TMessage>createPublishingStrategy(threadOption, capacity, overflowPolicy));
+    }
+
+    public <TMessage extends Message> Subscription<TMessage> build(SubscriptionToken token, Subscriber<TMessage> subscriber, int priority,
+                                                                   boolean acceptsChildMessages, ThreadOption threadOption,
+                                                                   boolean keepSubscriberAlive, KeyExtractor<?> conflationKeyExtractor) {
+        Executor executor;
         switch (threadOption) {
-            case PUBLISHER:
-                publishingStrategy = new PublisherThreadPublishingStrategy<>();
+            case UI:
+                executor = getMainThreadExecutor();
                 break;
-            case BACKGROUND:
-                publishingStrategy = new BackgroundPublishingStrategy<>(mExecutorService);
+            case VIRTUAL:
+                executor = VirtualThreads.isSupported() ? getVirtualThreadExecutorService() : mExecutorService;
                 break;
-            default: // case UI:
-                publishingStrategy = new UIPublishingStrategy<>(mMainLooper);
+            default: // case PUBLISHER, BACKGROUND:
+                executor = mExecutorService;
                 break;
         }
-        return build(token, subscriber, priority, acceptsChildMessages, publishingStrategy, keepSubscriberAlive);
+        return build(token, subscriber, priority, acceptsChildMessages,
+                new ConflatingPublishingStrategy<TMessage>(executor, threadOption, conflationKeyExtractor), keepSubscriberAlive);
     }
 
     public <TMessage extends Message> Subscription<TMessage> build(SubscriptionToken token, Subscriber<TMessage> subscriber, int priority,
                                                                    boolean acceptsChildMessages, PublishingStrategy<TMessage> publishingStrategy,
                                                                    boolean keepSubscriberAlive) {
         return new Subscription<>(token,
-                createSubscriberReference(subscriber, keepSubscriberAlive),
+                createSubscriberReference(token, subscriber, keepSubscriberAlive),
                 priority, acceptsChildMessages,
                 publishingStrategy);
     }
 
-    private <TMessage extends Message> SubscriberReference<TMessage> createSubscriberReference(Subscriber<TMessage> subscriber,
+    /**
+     * Builds a subscription living in a registry other than the bus's own, such as the registry of
+     * a named channel, so that a collected subscriber is reclaimed from there.
+     */
+    public <TMessage extends Message> Subscription<TMessage> build(SubscriptionRegistry registry, SubscriptionToken token, Subscriber<TMessage> subscriber,
+                                                                   int priority, boolean acceptsChildMessages, ThreadOption threadOption,
+                                                                   boolean keepSubscriberAlive, int capacity, OverflowPolicy overflowPolicy) {
+        SubscriberReference<TMessage> subscriberReference = keepSubscriberAlive ? new StrongSubscriberReference<>(subscriber)
+                : new WeakSubscriberReference<>(subscriber, token, registry);
+        return new Subscription<>(token, subscriberReference, priority, acceptsChildMessages,
+                this.<TMessage>createPublishingStrategy(threadOption, capacity, overflowPolicy));
+    }
+
+    private <TMessage extends Message> PublishingStrategy<TMessage> createPublishingStrategy(ThreadOption threadOption, int capacity,
+                                                                                            OverflowPolicy overflowPolicy) {
+        PublishingStrategy<TMessage> publishingStrategy;
+        switch (threadOption) {
+            case PUBLISHER:
+                publishingStrategy = PublisherThreadPublishingStrategy.instance();
+                break;
+            case BACKGROUND:
+                publishingStrategy = new BackgroundPublishingStrategy<>(mExecutorService, capacity, overflowPolicy);
+                break;
+            case VIRTUAL:
+                publishingStrategy = VirtualThreads.isSupported()
+                        ? new VirtualThreadPublishingStrategy<TMessage>(getVirtualThreadExecutorService(), capacity, overflowPolicy)
+                        : new BackgroundPublishingStrategy<TMessage>(mExecutorService, capacity, overflowPolicy);
+                break;
+            default: // case UI:
+                publishingStrategy = new UIPublishingStrategy<>(getMainLooper());
+                break;
+        }
+        return publishingStrategy;
+    }
+
+    /**
+     * Resolves the main looper on first use only, so that a bus without UI subscribers does not
+     * touch the Android looper at all and can run on a plain JVM.
+     */
+    private Looper getMainLooper() {
+        Looper mainLooper = mMainLooper;
+        if (null == mainLooper) {
+            mainLooper = Looper.getMainLooper();
+            mMainLooper = mainLooper;
+        }
+        return mainLooper;
+    }
+
+    private Executor getMainThreadExecutor() {
+        Executor executor = mMainThreadExecutor;
+        if (null == executor) {
+            executor = new HandlerExecutor(getMainLooper());
+            mMainThreadExecutor = executor;
+        }
+        return executor;
+    }
+
+    /**
+     * Creates the virtual-thread-per-task executor on first use only, so that buses without
+     * virtual thread subscribers never create one.
+     */
+    private ExecutorService getVirtualThreadExecutorService() {
+        ExecutorService executorService = mVirtualThreadExecutorService;
+        if (null == executorService) {
+            synchronized (this) {
+                executorService = mVirtualThreadExecutorService;
+                if (null == executorService) {
+                    executorService = VirtualThreads.newVirtualThreadPerTaskExecutor();
+                    mVirtualThreadExecutorService = executorService;
+                }
+            }
+        }
+        return executorService;
+    }
+
+    private <TMessage extends Message> SubscriberReference<TMessage> createSubscriberReference(SubscriptionToken token,
+                                                                                               Subscriber<TMessage> subscriber,
                                                                                                boolean keepSubscriberAlive) {
         return keepSubscriberAlive ? new StrongSubscriberReference<>(subscriber)
-                : new WeakSubscriberReference<>(subscriber);
+                : new WeakSubscriberReference<>(subscriber, token, mRegistry);
     }
 }
@@ -0,0 +1,412 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.robo.reflect.TypeUtils;
+
+/**
+ * Copy-on-write registry of subscriptions, keyed by message type.
+ * <p>
+ * Readers always see an immutable snapshot and never take a lock. Writers are serialized
+ * among themselves, copy the affected part of the current snapshot and swap the new one in
+ * with a single volatile write.
+ * <p>
+ * On top of the snapshot the registry caches a route per concrete message class: a flattened,
+ * priority-sorted array of every subscription that should receive messages of that class,
+ * including subscriptions of its super types and interfaces that accept child messages. Each
+ * route remembers the registry version it was built from and is rebuilt lazily once any
+ * subscribe or unsubscribe bumps the version.
+ * <p>
+ * Subscriptions with a routing key are kept in a per-key index of the route, built from the
+ * {@link KeyExtractor} registered for the message class or its closest super type. A message then
+ * reaches the subscriptions without a routing key plus those whose key matches its own.
+ * <p>
+ * Subscriptions of collected weak subscribers are removed by the {@link SubscriberReaper}, so
+ * neither route building nor publishing has to check liveness.
+ *
+ * @author robo-admin
+ */
+final class SubscriptionRegistry {
+
+    private static final Subscription<?>[] NO_SUBSCRIPTIONS = new Subscription<?>[0];
+
+    private final Object mWriteLock = new Object();
+    private volatile Map<Type, Subscriptions> mSubscriptions;
+    private volatile int mVersion;
+    private final ConcurrentHashMap<Class<?>, Route> mRoutes;
+    private final ConcurrentHashMap<Class<?>, List<Class<?>>> mSuperTypes;
+    private final ConcurrentHashMap<Type, AtomicLong> mPurgeCounts;
+    private volatile Map<Class<?>, KeyExtractor<?>> mKeyExtractors;
+    private final Runnable mEmptiedListener;
+
+    SubscriptionRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param emptiedListener Called, outside of any lock, whenever removing a subscription leaves
+     *                        the registry without subscriptions. May be null.
+     */
+    SubscriptionRegistry(Runnable emptiedListener) {
+        mEmptiedListener = emptiedListener;
+        mSubscriptions = Collections.emptyMap();
+        mKeyExtractors = Collections.emptyMap();
+        mRoutes = new ConcurrentHashMap<>();
+        mSuperTypes = new ConcurrentHashMap<>();
+        mPurgeCounts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets subscriptions of a specified message type from the current snapshot.
+     *
+     * @return The subscriptions, or null if there is none. The returned collection must not be modified.
+     */
+    Subscriptions get(Type messageType) {
+        return mSubscriptions.get(messageType);
+    }
+
+    void add(Type messageType, Subscription<?> subscription) {
+        synchronized (mWriteLock) {
+            Map<Type, Subscriptions> current = mSubscriptions;
+            Subscriptions byMessageSubscriptions = current.get(messageType);
+            byMessageSubscriptions = null == byMessageSubscriptions ? new Subscriptions() : byMessageSubscriptions.copy();
+            byMessageSubscriptions.add(subscription);
+            Map<Type, Subscriptions> next = new HashMap<>(current);
+            next.put(messageType, byMessageSubscriptions);
+            mSubscriptions = Collections.unmodifiableMap(next);
+            mVersion++;
+        }
+    }
+
+    boolean remove(SubscriptionToken token) {
+        boolean isEmpty;
+        synchronized (mWriteLock) {
+            Map<Type, Subscriptions> current = mSubscriptions;
+            Subscriptions byMessageSubscriptions = current.get(token.getMessageType());
+            if (null == byMessageSubscriptions || null == find(token)) {
+                return false;
+            }
+            byMessageSubscriptions = byMessageSubscriptions.copy();
+            byMessageSubscriptions.removeByKey(token);
+            Map<Type, Subscriptions> next = new HashMap<>(current);
+            if (byMessageSubscriptions.size() == 0) {
+                next.remove(token.getMessageType());
+            } else {
+                next.put(token.getMessageType(), byMessageSubscriptions);
+            }
+            mSubscriptions = Collections.unmodifiableMap(next);
+            mVersion++;
+            isEmpty = next.isEmpty();
+        }
+        if (isEmpty && null != mEmptiedListener) {
+            mEmptiedListener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Indicates if the current snapshot holds no subscription at all.
+     */
+    boolean isEmpty() {
+        return mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Sets the extractor of routing keys from messages of a specified type and its sub types.
+     *
+     * @param keyExtractor The extractor, or null to remove it.
+     */
+    void setKeyExtractor(Class<?> messageType, KeyExtractor<?> keyExtractor) {
+        synchronized (mWriteLock) {
+            Map<Class<?>, KeyExtractor<?>> next = new HashMap<>(mKeyExtractors);
+            if (null == keyExtractor) {
+                next.remove(messageType);
+            } else {
+                next.put(messageType, keyExtractor);
+            }
+            mKeyExtractors = Collections.unmodifiableMap(next);
+            mVersion++;
+        }
+    }
+
+    /**
+     * Removes the subscription of a garbage collected subscriber, counting it per message type.
+     */
+    void purge(SubscriptionToken token) {
+        if (remove(token)) {
+            AtomicLong count = mPurgeCounts.get(token.getMessageType());
+            if (null == count) {
+                AtomicLong created = new AtomicLong();
+                count = mPurgeCounts.putIfAbsent(token.getMessageType(), created);
+                if (null == count) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets number of subscriptions for a specified message type removed by {@link #purge(SubscriptionToken)}.
+     */
+    long getPurgeCount(Type messageType) {
+        AtomicLong count = mPurgeCounts.get(messageType);
+        return null == count ? 0 : count.get();
+    }
+
+    /**
+     * Finds the subscription of a specified token in the current snapshot.
+     *
+     * @return The subscription, or null if the token is not subscribed.
+     */
+    Subscription<?> find(SubscriptionToken token) {
+        Subscriptions subscriptions = mSubscriptions.get(token.getMessageType());
+        if (null != subscriptions) {
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription<?> subscription = subscriptions.getAt(i);
+                if (subscription.getToken().equals(token)) {
+                    return subscription;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the route of a specified concrete message class.
+     */
+    Route getRoute(Class<?> messageType) {
+        // Version must be read before the snapshot, so that a route built from a snapshot
+        // older than the version it is tagged with can never be produced.
+        int version = mVersion;
+        Route route = mRoutes.get(messageType);
+        if (null == route || route.mVersion != version) {
+            route = buildRoute(version, messageType);
+            mRoutes.put(messageType, route);
+        }
+        return route;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Route buildRoute(int version, Class<?> messageType) {
+        List<Subscription<?>> route = new ArrayList<>();
+        collect(messageType, false, route);
+        for (Class<?> messageSuperType : getAllSuperTypes(messageType)) {
+            collect(messageSuperType, true, route);
+        }
+        List<Subscription<?>> keyless = new ArrayList<>(route.size());
+        Map<Object, List<Subscription<?>>> keyed = null;
+        for (Subscription<?> subscription : route) {
+            Object routingKey = subscription.getRoutingKey();
+            if (null == routingKey) {
+                keyless.add(subscription);
+                continue;
+            }
+            if (null == keyed) {
+                keyed = new HashMap<>();
+            }
+            List<Subscription<?>> byKey = keyed.get(routingKey);
+            if (null == byKey) {
+                byKey = new ArrayList<>();
+                keyed.put(routingKey, byKey);
+            }
+            byKey.add(subscription);
+        }
+        if (null == keyed) {
+            return new Route(version, sort(keyless), null, null);
+        }
+        Map<Object, Subscription<?>[]> keyedSubscriptions = new HashMap<>(keyed.size());
+        for (Map.Entry<Object, List<Subscription<?>>> entry : keyed.entrySet()) {
+            List<Subscription<?>> byKey = entry.getValue();
+            byKey.addAll(keyless);
+            keyedSubscriptions.put(entry.getKey(), sort(byKey));
+        }
+        return new Route(version, sort(keyless), (KeyExtractor<Object>) getKeyExtractor(messageType), keyedSubscriptions);
+    }
+
+    private static Subscription<?>[] sort(List<Subscription<?>> route) {
+        if (route.isEmpty()) {
+            return NO_SUBSCRIPTIONS;
+        }
+        Subscription<?>[] subscriptions = route.toArray(new Subscription<?>[route.size()]);
+        Arrays.sort(subscriptions);
+        return subscriptions;
+    }
+
+    /**
+     * Gets the key extractor registered for a message class or, failing that, its closest super type.
+     *
+     * @return The extractor, or null if none is registered.
+     */
+    KeyExtractor<?> getKeyExtractor(Class<?> messageType) {
+        Map<Class<?>, KeyExtractor<?>> keyExtractors = mKeyExtractors;
+        KeyExtractor<?> keyExtractor = keyExtractors.get(messageType);
+        if (null == keyExtractor) {
+            for (Class<?> messageSuperType : getAllSuperTypes(messageType)) {
+                keyExtractor = keyExtractors.get(messageSuperType);
+                if (null != keyExtractor) {
+                    break;
+                }
+            }
+        }
+        return keyExtractor;
+    }
+
+    private void collect(Type messageType, boolean isFindingBySuperType, List<Subscription<?>> route) {
+        Subscriptions subscriptions = mSubscriptions.get(messageType);
+        if (null != subscriptions) {
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription<?> subscription = subscriptions.getAt(i);
+                if (!isFindingBySuperType || subscription.acceptsChildMessages()) {
+                    route.add(subscription);
+                }
+            }
+        }
+    }
+
+    private List<Class<?>> getAllSuperTypes(Class<?> messageType) {
+        List<Class<?>> allTypesIncludingSuper = mSuperTypes.get(messageType);
+        if (null == allTypesIncludingSuper) {
+            allTypesIncludingSuper = new ArrayList<>();
+            TypeUtils.fetchAllSuperTypes(messageType, allTypesIncludingSuper);
+            TypeUtils.fetchAllInterfaces(messageType, allTypesIncludingSuper);
+            allTypesIncludingSuper = Collections.unmodifiableList(allTypesIncludingSuper);
+            List<Class<?>> existing = mSuperTypes.putIfAbsent(messageType, allTypesIncludingSuper);
+            if (null != existing) {
+                allTypesIncludingSuper = existing;
+            }
+        }
+        return allTypesIncludingSuper;
+    }
+
+    /**
+     * Subscriptions to deliver messages of one concrete class to, sorted by priority. Subscriptions
+     * sharing a priority form a tier.
+     * <p>
+     * The route itself holds the subscriptions without a routing key. Routes for a specific key,
+     * merging those with the subscriptions for the key, are built on first use of the key.
+     */
+    static final class Route {
+        private final int mVersion;
+        private final Subscription<?>[] mSubscriptions;
+        private final int[] mTierStarts;
+        private final int mLargestTierSize;
+        private final KeyExtractor<Object> mKeyExtractor;
+        private final Map<Object, Subscription<?>[]> mKeyedSubscriptions;
+        private final ConcurrentHashMap<Object, Route> mKeyedRoutes;
+
+        Route(int version, Subscription<?>[] subscriptions, KeyExtractor<Object> keyExtractor,
+              Map<Object, Subscription<?>[]> keyedSubscriptions) {
+            mVersion = version;
+            mSubscriptions = subscriptions;
+            mKeyExtractor = keyExtractor;
+            mKeyedSubscriptions = keyedSubscriptions;
+            mKeyedRoutes = null == keyExtractor ? null : new ConcurrentHashMap<Object, Route>();
+            int tierCount = 0;
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (i == 0 || subscriptions[i].getPriority() != subscriptions[i - 1].getPriority()) {
+                    tierCount++;
+                }
+            }
+            mTierStarts = new int[tierCount + 1];
+            int largestTierSize = 0;
+            int tier = 0;
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (i == 0 || subscriptions[i].getPriority() != subscriptions[i - 1].getPriority()) {
+                    mTierStarts[tier++] = i;
+                }
+            }
+            mTierStarts[tierCount] = subscriptions.length;
+            for (int i = 0; i < tierCount; i++) {
+                largestTierSize = Math.max(largestTierSize, mTierStarts[i + 1] - mTierStarts[i]);
+            }
+            mLargestTierSize = largestTierSize;
+        }
+
+        /**
+         * @return The subscriptions. The returned array must not be modified.
+         */
+        Subscription<?>[] getSubscriptions() {
+            return mSubscriptions;
+        }
+
+        int getTierCount() {
+            return mTierStarts.length - 1;
+        }
+
+        /**
+         * @return Index of the first subscription of a tier. For {@code tier == getTierCount()}, the
+         * number of subscriptions.
+         */
+        int getTierStart(int tier) {
+            return mTierStarts[tier];
+        }
+
+        int getLargestTierSize() {
+            return mLargestTierSize;
+        }
+
+        /**
+         * Extracts the routing key of a message.
+         *
+         * @return The key, or null if the message class has no key extractor or no keyed subscriptions.
+         */
+        Object extractKey(Message message) {
+            return null == mKeyExtractor ? null : mKeyExtractor.extractKey(message.getContent());
+        }
+
+        /**
+         * Gets the route of a specific message: this route, or the route for the message's key if
+         * any subscription is keyed by it.
+         */
+        Route forMessage(Message message) {
+            if (null == mKeyExtractor) {
+                return this;
+            }
+            Object key = mKeyExtractor.extractKey(message.getContent());
+            return null == key ? this : forKey(key);
+        }
+
+        Route forKey(Object key) {
+            if (null == mKeyExtractor) {
+                return this;
+            }
+            Route route = mKeyedRoutes.get(key);
+            if (null == route) {
+                Subscription<?>[] subscriptions = mKeyedSubscriptions.get(key);
+                if (null == subscriptions) {
+                    return this;
+                }
+                route = new Route(mVersion, subscriptions, null, null);
+                Route existing = mKeyedRoutes.putIfAbsent(key, route);
+                if (null != existing) {
+                    route = existing;
+                }
+            }
+            return route;
+        }
+    }
+}
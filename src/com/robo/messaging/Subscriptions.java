@@ -25,4 +25,15 @@ final class Subscriptions extends KeyedCollection<SubscriptionToken, Subscriptio
 		return item.getToken();
 	}
 
+	/**
+	 * Creates a shallow copy of this collection. Used by {@link SubscriptionRegistry} to
+	 * build a new snapshot without touching the one being read by publishers.
+	 */
+	Subscriptions copy() {
+		Subscriptions copy = new Subscriptions();
+		for (int i = 0; i < size(); i++) {
+			copy.add(getAt(i));
+		}
+		return copy;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sequence of unique numbers in which each thread hands out numbers from its own block, and only
+ * reserves a new block from the shared counter once its current one is exhausted. Numbers are
+ * unique across threads but only ordered within a thread.
+ *
+ * @author robo-admin
+ */
+final class ThreadLocalBlockSequence {
+
+    private final long mFirst;
+    private final int mBlockSize;
+    private final AtomicLong mNextBlock;
+    private final ThreadLocal<long[]> mBlocks;
+
+    /**
+     * @param first     The smallest number handed out.
+     * @param blockSize Number of numbers a thread reserves at once.
+     */
+    ThreadLocalBlockSequence(long first, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize");
+        }
+        mFirst = first;
+        mBlockSize = blockSize;
+        mNextBlock = new AtomicLong();
+        mBlocks = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                // next, end
+                return new long[2];
+            }
+        };
+    }
+
+    long next() {
+        long[] block = mBlocks.get();
+        if (block[0] == block[1]) {
+            block[0] = mFirst + mNextBlock.getAndIncrement() * mBlockSize;
+            block[1] = block[0] + mBlockSize;
+        }
+        return block[0]++;
+    }
+}
@@ -36,5 +36,11 @@ public enum ThreadOption {
 	/*
 	 * Uses background thread.
 	 */
-	BACKGROUND
+	BACKGROUND,
+
+	/**
+	 * Uses a virtual thread, for subscribers that block on I/O. Falls back to background threads
+	 * on runtimes without virtual threads.
+	 */
+	VIRTUAL
 }
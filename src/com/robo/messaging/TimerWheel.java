@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel firing timeouts on a single daemon thread.
+ * <p>
+ * Scheduling appends to a lock-free bucket and cancelling flips a flag, so neither blocks nor
+ * allocates beyond the timeout itself. Timeouts fire with a resolution of one tick, at most one
+ * tick late. The thread is started on first use and shared by every bus in the process.
+ *
+ * @author robo-admin
+ */
+final class TimerWheel implements Runnable {
+
+    private static final int WHEEL_SIZE = 512;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ConcurrentLinkedQueue<Timeout>[] mBuckets;
+    private final long mStartNanos;
+    private final AtomicBoolean mIsStarted;
+    /**
+     * Tick whose bucket is being or was last processed. Published before the bucket is scanned,
+     * so that a timeout added to the bucket behind the scan sees it and fires itself.
+     */
+    private volatile long mTick;
+
+    @SuppressWarnings("unchecked")
+    private TimerWheel() {
+        mBuckets = new ConcurrentLinkedQueue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            mBuckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        mStartNanos = System.nanoTime();
+        mIsStarted = new AtomicBoolean();
+    }
+
+    static TimerWheel instance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Schedules a task to run once a delay has elapsed, on the timer thread. The task must be short.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (mIsStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(this, "MessageBus-RequestTimer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long deadline = (System.nanoTime() - mStartNanos + unit.toNanos(delay) + TICK_NANOS - 1) / TICK_NANOS;
+        deadline = Math.max(deadline, mTick + 1);
+        Timeout timeout = new Timeout(task, deadline);
+        mBuckets[(int) (deadline & (WHEEL_SIZE - 1))].add(timeout);
+        if (mTick >= deadline) {
+            // The timer thread reached the bucket while we were adding to it and may have scanned past.
+            timeout.fire();
+        }
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long tick = mTick + 1;
+            long wait;
+            while ((wait = mStartNanos + tick * TICK_NANOS - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            mTick = tick;
+            Iterator<Timeout> timeouts = mBuckets[(int) (tick & (WHEEL_SIZE - 1))].iterator();
+            while (timeouts.hasNext()) {
+                Timeout timeout = timeouts.next();
+                if (timeout.isDone()) {
+                    timeouts.remove();
+                } else if (timeout.mDeadline <= tick) {
+                    timeouts.remove();
+                    try {
+                        timeout.fire();
+                    } catch (RuntimeException e) {
+                        // A failing task must not stop the other timeouts.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A scheduled task, run at most once unless cancelled first.
+     */
+    static final class Timeout {
+        private final Runnable mTask;
+        private final long mDeadline;
+        private final AtomicBoolean mIsDone;
+
+        Timeout(Runnable task, long deadline) {
+            mTask = task;
+            mDeadline = deadline;
+            mIsDone = new AtomicBoolean();
+        }
+
+        /**
+         * Cancels the timeout. It is dropped from the wheel when its bucket comes round.
+         *
+         * @return false if it already fired or was cancelled.
+         */
+        boolean cancel() {
+            return mIsDone.compareAndSet(false, true);
+        }
+
+        boolean isDone() {
+            return mIsDone.get();
+        }
+
+        private void fire() {
+            if (mIsDone.compareAndSet(false, true)) {
+                mTask.run();
+            }
+        }
+    }
+
+    private static final class Holder {
+        static final TimerWheel INSTANCE = new TimerWheel();
+    }
+}
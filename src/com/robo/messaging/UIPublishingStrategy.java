@@ -16,13 +16,15 @@
  */
 package com.robo.messaging;
 
+import java.util.List;
+
 import com.robo.threading.ThreadUtils;
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-final class UIPublishingStrategy<TMessage extends com.robo.messaging.Message> implements PublishingStrategy<TMessage> {
+final class UIPublishingStrategy<TMessage extends com.robo.messaging.Message> implements BatchPublishingStrategy<TMessage> {
 
 	private Looper mLooper;
 
@@ -40,6 +42,16 @@ final class UIPublishingStrategy<TMessage extends com.robo.messaging.Message> im
 		}
 	}
 
+	@Override
+	public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+		if (ThreadUtils.isCurrentThreadBackgroundThread()) {
+			Handler handler = new BatchDeliveryHandler(subscriber, messages);
+			handler.sendMessage(handler.obtainMessage());
+		} else {
+			Subscription.receiveAll(subscriber, messages);
+		}
+	}
+
 	class DeliveryHandler extends Handler {
 
 		private Subscriber<TMessage> mSubscriber;
@@ -56,4 +68,21 @@ final class UIPublishingStrategy<TMessage extends com.robo.messaging.Message> im
 			mSubscriber.receive(mMessage);
 		}
 	}
+
+	class BatchDeliveryHandler extends Handler {
+
+		private Subscriber<TMessage> mSubscriber;
+		private List<TMessage> mMessages;
+
+		public BatchDeliveryHandler(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+			super(mLooper);
+			mSubscriber = subscriber;
+			mMessages = messages;
+		}
+
+		@Override
+		public void handleMessage(Message msg) {
+			Subscription.receiveAll(mSubscriber, mMessages);
+		}
+	}
 }
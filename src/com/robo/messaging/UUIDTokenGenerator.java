@@ -15,8 +15,6 @@
  */
 package com.robo.messaging;
 
-import com.robo.reflect.TypeUtils;
-
 import java.util.UUID;
 
 /**
@@ -27,6 +25,6 @@ import java.util.UUID;
 public class UUIDTokenGenerator implements TokenGenerator {
     @Override
     public SubscriptionToken generateToken(Subscriber<?> subscriber) {
-        return new UUIDToken(UUID.randomUUID(), (Class<? extends Message>)TypeUtils.getGenericParameterType(subscriber.getClass(), 0));
+        return new UUIDToken(UUID.randomUUID(), MessageTypes.of(subscriber));
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Delivers messages on virtual threads, for subscribers that block inside {@link Subscriber#receive(Message)}.
+ * <p>
+ * Like {@link BackgroundPublishingStrategy}, messages go through a {@link Mailbox} owned by the
+ * subscription, so delivery keeps publish order. The mailbox is only drained inline when the
+ * publisher is itself a virtual thread; a platform thread, including a carrier thread, always hands
+ * delivery over to the executor so a blocking subscriber never ties it up.
+ */
+final class VirtualThreadPublishingStrategy<TMessage extends Message> implements QueuedPublishingStrategy<TMessage> {
+
+    private final Mailbox<TMessage> mMailbox;
+
+    public VirtualThreadPublishingStrategy(ExecutorService executorService, int capacity, OverflowPolicy overflowPolicy) {
+        mMailbox = new Mailbox<>(executorService, capacity, overflowPolicy);
+    }
+
+    @Override
+    public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message) {
+        deliverMessage(subscriber, message, null);
+    }
+
+    @Override
+    public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages) {
+        deliverMessages(subscriber, messages, null);
+    }
+
+    @Override
+    public void deliverMessage(Subscriber<TMessage> subscriber, TMessage message, PublisherCallback callback) {
+        mMailbox.post(subscriber, message, VirtualThreads.isCurrentThreadVirtual(), callback);
+    }
+
+    @Override
+    public void deliverMessages(Subscriber<TMessage> subscriber, List<TMessage> messages, PublisherCallback callback) {
+        mMailbox.postAll(subscriber, messages, VirtualThreads.isCurrentThreadVirtual(), callback);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return mMailbox.size();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.robo.threading.ThreadUtils;
+
+/**
+ * Access to virtual threads on runtimes that have them.
+ * <p>
+ * The library also targets runtimes without virtual threads (Android, older JVMs), so the API is
+ * looked up reflectively once and every method degrades gracefully when it is missing. The check for
+ * a virtual thread runs on every publish, so it goes through a method handle the JIT can inline
+ * rather than a reflective call.
+ *
+ * @author robo-admin
+ */
+final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Indicates if the current runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return null != NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR && null != IS_VIRTUAL;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @return The executor, or null if virtual threads are not supported.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            return null;
+        }
+        return (ExecutorService) invoke(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR, null);
+    }
+
+    /**
+     * Indicates if the current thread is a virtual thread. Always false if virtual threads are not supported.
+     */
+    static boolean isCurrentThreadVirtual() {
+        if (null == IS_VIRTUAL) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Indicates if the current thread is a background platform thread, on which background
+     * subscribers may be run inline. Virtual threads are not: a background subscriber must not run
+     * on a virtual publisher's thread.
+     */
+    static boolean isCurrentThreadBackgroundPlatformThread() {
+        return ThreadUtils.isCurrentThreadBackgroundThread() && !isCurrentThreadVirtual();
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target) {
+        try {
+            return method.invoke(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
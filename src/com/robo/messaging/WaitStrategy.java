@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Specifies how a thread of {@link RingBufferMessageBus} waits for the ring buffer: the dispatcher
+ * waiting for published messages, or a publisher waiting for a free slot.
+ *
+ * @author robo-admin
+ */
+public enum WaitStrategy {
+    /**
+     * Spins without ever giving up the CPU. Lowest latency, burns a core while idle.
+     */
+    BUSY_SPIN {
+        @Override
+        int idle(int counter) {
+            return counter;
+        }
+    },
+
+    /**
+     * Spins briefly, then yields the CPU to other threads between checks.
+     */
+    YIELD {
+        @Override
+        int idle(int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            Thread.yield();
+            return counter;
+        }
+    },
+
+    /**
+     * Spins and yields briefly, then parks for short periods between checks. Lowest CPU usage,
+     * highest wake-up latency.
+     */
+    PARK {
+        @Override
+        int idle(int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            if (counter < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return counter + 1;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+            return counter;
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 1000L;
+
+    /**
+     * Waits once.
+     *
+     * @param counter Number of times waited since the thread last made progress, starting from 0.
+     * @return The counter to pass to the next call.
+     */
+    abstract int idle(int counter);
+}
@@ -18,17 +18,32 @@ package com.robo.messaging;
 
 import java.lang.ref.WeakReference;
 
-final class WeakSubscriberReference<TMessage extends Message> implements SubscriberReference<TMessage> {
+/**
+ * Weak reference to a subscriber. Extends {@link WeakReference} directly rather than wrapping one,
+ * so that resolving the subscriber on the publish path costs a single dereference.
+ * <p>
+ * The reference is registered with the {@link SubscriberReaper} queue. Once the subscriber has been
+ * collected, the reaper calls {@link #reclaim()} which removes the subscription from its registry.
+ */
+final class WeakSubscriberReference<TMessage extends Message> extends WeakReference<Subscriber<TMessage>>
+		implements SubscriberReference<TMessage> {
 
-	private WeakReference<Subscriber<TMessage>> mSubscriberRef;
+	private final SubscriptionToken mToken;
+	private final SubscriptionRegistry mRegistry;
 
-	public WeakSubscriberReference(Subscriber<TMessage> subscriber) {
-		mSubscriberRef = new WeakReference<>(subscriber);
+	public WeakSubscriberReference(Subscriber<TMessage> subscriber, SubscriptionToken token, SubscriptionRegistry registry) {
+		super(subscriber, SubscriberReaper.queue());
+		mToken = token;
+		mRegistry = registry;
 	}
 
 	@Override
 	public Subscriber<TMessage> getSubscriber() {
-		return mSubscriberRef.get();
+		return get();
+	}
+
+	void reclaim() {
+		mRegistry.purge(mToken);
 	}
 
 }
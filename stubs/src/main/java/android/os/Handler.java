@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * Plain JVM stand-in for the Android Handler: posts tasks and messages to a {@link Looper}.
+ *
+ * @author robo-admin
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        if (null == looper) {
+            throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+        }
+        mLooper = looper;
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable task) {
+        mLooper.enqueue(task);
+        return true;
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this);
+    }
+
+    public final boolean sendMessage(final Message message) {
+        message.target = this;
+        mLooper.enqueue(new Runnable() {
+            @Override
+            public void run() {
+                dispatchMessage(message);
+            }
+        });
+        return true;
+    }
+
+    public void dispatchMessage(Message message) {
+        handleMessage(message);
+    }
+
+    /**
+     * Subclasses override this to receive messages.
+     */
+    public void handleMessage(Message message) {
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Plain JVM stand-in for the Android Looper: a thread running queued tasks in order. The main
+ * looper runs on a daemon thread named "main", started on first use.
+ *
+ * @author robo-admin
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> LOOPER = new ThreadLocal<>();
+    private static final Runnable QUIT = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    private static volatile Looper sMainLooper;
+
+    private final BlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<>();
+    private final Thread mThread;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    /**
+     * Makes the current thread a looper thread. {@link #loop()} must be called to run its tasks.
+     */
+    public static void prepare() {
+        if (null != LOOPER.get()) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        LOOPER.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return LOOPER.get();
+    }
+
+    public static Looper getMainLooper() {
+        Looper mainLooper = sMainLooper;
+        if (null == mainLooper) {
+            synchronized (Looper.class) {
+                mainLooper = sMainLooper;
+                if (null == mainLooper) {
+                    mainLooper = startMainLooper();
+                    sMainLooper = mainLooper;
+                }
+            }
+        }
+        return mainLooper;
+    }
+
+    /**
+     * Runs the tasks of the current thread's looper until {@link #quit()} is called.
+     */
+    public static void loop() {
+        Looper looper = myLooper();
+        if (null == looper) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        while (true) {
+            Runnable task;
+            try {
+                task = looper.mQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (QUIT == task) {
+                return;
+            }
+            task.run();
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public void quit() {
+        mQueue.add(QUIT);
+    }
+
+    void enqueue(Runnable task) {
+        mQueue.add(task);
+    }
+
+    private static Looper startMainLooper() {
+        final Looper[] mainLooper = new Looper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prepare();
+                mainLooper[0] = myLooper();
+                prepared.countDown();
+                loop();
+            }
+        }, "main");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            prepared.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting the main looper", e);
+        }
+        return mainLooper[0];
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * Plain JVM stand-in for the Android Message.
+ *
+ * @author robo-admin
+ */
+public final class Message {
+
+    public int what;
+    public Object obj;
+    Handler target;
+
+    public static Message obtain() {
+        return new Message();
+    }
+
+    public static Message obtain(Handler handler) {
+        Message message = new Message();
+        message.target = handler;
+        return message;
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Plain JVM stand-in for the robo-core argument guard.
+ *
+ * @author robo-admin
+ */
+public final class Guard {
+
+    private Guard() {
+    }
+
+    /**
+     * Throws an exception of the specified type if the argument is null.
+     *
+     * @param argument      Argument to check.
+     * @param exceptionType Type of the exception to throw. Must have a constructor taking a message.
+     * @param message       Message of the exception, usually the argument name.
+     */
+    public static void isNotNull(Object argument, Class<? extends RuntimeException> exceptionType, String message) {
+        if (null == argument) {
+            RuntimeException exception;
+            try {
+                Constructor<? extends RuntimeException> constructor = exceptionType.getConstructor(String.class);
+                exception = constructor.newInstance(message);
+            } catch (ReflectiveOperationException e) {
+                exception = new IllegalArgumentException(message);
+            }
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plain JVM stand-in for the robo-core keyed collection: a list whose items are also indexed by
+ * a key taken from each item. Not thread safe.
+ *
+ * @author robo-admin
+ */
+public abstract class KeyedCollection<TKey, TItem> {
+
+    private final List<TItem> mItems = new ArrayList<>();
+    private final Map<TKey, TItem> mItemsByKey = new HashMap<>();
+
+    protected abstract TKey getKeyForItem(TItem item);
+
+    public void add(TItem item) {
+        TKey key = getKeyForItem(item);
+        if (mItemsByKey.containsKey(key)) {
+            throw new IllegalArgumentException("An item with the same key has already been added.");
+        }
+        mItemsByKey.put(key, item);
+        mItems.add(item);
+    }
+
+    public TItem getAt(int index) {
+        return mItems.get(index);
+    }
+
+    public TItem getByKey(TKey key) {
+        return mItemsByKey.get(key);
+    }
+
+    public boolean containsKey(TKey key) {
+        return mItemsByKey.containsKey(key);
+    }
+
+    public boolean removeByKey(TKey key) {
+        TItem item = mItemsByKey.remove(key);
+        return null != item && mItems.remove(item);
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.reflect;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Plain JVM stand-in for the robo-core reflection helpers.
+ *
+ * @author robo-admin
+ */
+public final class TypeUtils {
+
+    private TypeUtils() {
+    }
+
+    /**
+     * Adds all super classes of a type, closest first, to a list. The type itself is not added.
+     */
+    public static void fetchAllSuperTypes(Class<?> type, List<Class<?>> result) {
+        Class<?> superType = type.getSuperclass();
+        while (null != superType) {
+            if (!result.contains(superType)) {
+                result.add(superType);
+            }
+            superType = superType.getSuperclass();
+        }
+    }
+
+    /**
+     * Adds all interfaces implemented by a type or its super classes, directly or not, to a list.
+     */
+    public static void fetchAllInterfaces(Class<?> type, List<Class<?>> result) {
+        for (Class<?> current = type; null != current; current = current.getSuperclass()) {
+            for (Class<?> anInterface : current.getInterfaces()) {
+                if (!result.contains(anInterface)) {
+                    result.add(anInterface);
+                }
+                fetchAllInterfaces(anInterface, result);
+            }
+        }
+    }
+
+    /**
+     * Gets the class of a generic parameter a type binds on its closest parameterized super class
+     * or interface.
+     *
+     * @return The class of the parameter, or null if it cannot be resolved to a class.
+     */
+    public static Class<?> getGenericParameterType(Class<?> type, int index) {
+        for (Class<?> current = type; null != current && Object.class != current; current = current.getSuperclass()) {
+            Class<?> parameterType = toClass(current.getGenericSuperclass(), index);
+            if (null != parameterType) {
+                return parameterType;
+            }
+            for (Type genericInterface : current.getGenericInterfaces()) {
+                parameterType = toClass(genericInterface, index);
+                if (null != parameterType) {
+                    return parameterType;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> toClass(Type type, int index) {
+        if (!(type instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+        if (index >= arguments.length) {
+            return null;
+        }
+        Type argument = arguments[index];
+        if (argument instanceof ParameterizedType) {
+            argument = ((ParameterizedType) argument).getRawType();
+        }
+        return argument instanceof Class ? (Class<?>) argument : null;
+    }
+}
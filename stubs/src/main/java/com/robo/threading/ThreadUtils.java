@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.threading;
+
+import android.os.Looper;
+
+/**
+ * Plain JVM stand-in for the robo-core thread helpers.
+ *
+ * @author robo-admin
+ */
+public final class ThreadUtils {
+
+    private ThreadUtils() {
+    }
+
+    /**
+     * Checks whether the current thread is not the thread of the main {@link Looper}.
+     */
+    public static boolean isCurrentThreadBackgroundThread() {
+        return Looper.myLooper() != Looper.getMainLooper();
+    }
+}
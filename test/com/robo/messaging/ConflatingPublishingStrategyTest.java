@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class ConflatingPublishingStrategyTest {
+
+    /**
+     * Conflates messages by their content divided by 10.
+     */
+    private static final KeyExtractor<Integer> TENS = new KeyExtractor<Integer>() {
+        @Override
+        public Object extractKey(Integer content) {
+            return content / 10;
+        }
+    };
+
+    @Test
+    public void latestMessagePerKeyReplacesEarlierOnesInTheFirstPosition() {
+        QueuedExecutor executor = new QueuedExecutor();
+        // UI subscriptions drain on the executor when published from a background thread.
+        ConflatingPublishingStrategy<TestMessage> strategy = new ConflatingPublishingStrategy<>(executor, ThreadOption.UI, TENS);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        strategy.deliverMessage(subscriber, new TestMessage(10));
+        strategy.deliverMessage(subscriber, new TestMessage(20));
+        strategy.deliverMessage(subscriber, new TestMessage(11));
+        strategy.deliverMessage(subscriber, new TestMessage(12));
+        assertEquals(2, strategy.getQueueDepth());
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        assertEquals(Arrays.asList(12, 20), subscriber.mReceived);
+        assertEquals(0, strategy.getQueueDepth());
+    }
+
+    @Test
+    public void batchSubscriberReceivesOneCallPerDrain() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ConflatingPublishingStrategy<TestMessage> strategy = new ConflatingPublishingStrategy<>(executor, ThreadOption.UI, TENS);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        strategy.deliverMessages(subscriber, Arrays.asList(new TestMessage(10), new TestMessage(20)));
+        strategy.deliverMessage(subscriber, new TestMessage(30));
+        executor.runAll();
+        assertEquals(1, subscriber.mBatchCount);
+        assertEquals(Arrays.asList(10, 20, 30), subscriber.mReceived);
+        strategy.deliverMessage(subscriber, new TestMessage(40));
+        executor.runAll();
+        assertEquals(2, subscriber.mBatchCount);
+    }
+
+    @Test
+    public void failingInlineDrainStaysOnThePublisherThread() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ConflatingPublishingStrategy<TestMessage> strategy = new ConflatingPublishingStrategy<>(executor, ThreadOption.PUBLISHER, TENS);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void receiveAll(List<TestMessage> messages) {
+                if (messages.get(0).getContent() == 10) {
+                    throw new IllegalStateException("first");
+                }
+                super.receiveAll(messages);
+            }
+        };
+        try {
+            strategy.deliverMessage(subscriber, new TestMessage(10));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        strategy.deliverMessage(subscriber, new TestMessage(20));
+        assertTrue(executor.mTasks.isEmpty());
+        assertEquals(Arrays.asList(20), subscriber.mReceived);
+        assertEquals(Arrays.asList(Thread.currentThread()), subscriber.mThreads);
+    }
+
+    /**
+     * Executor that queues tasks until they are run explicitly.
+     */
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class RecordingSubscriber implements BatchSubscriber<TestMessage> {
+        final List<Integer> mReceived = new ArrayList<>();
+        final List<Thread> mThreads = new ArrayList<>();
+        int mBatchCount;
+
+        @Override
+        public void receive(TestMessage message) {
+            receiveAll(Arrays.asList(message));
+        }
+
+        @Override
+        public void receiveAll(List<TestMessage> messages) {
+            mBatchCount++;
+            mThreads.add(Thread.currentThread());
+            for (TestMessage message : messages) {
+                mReceived.add(message.getContent());
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class FlowPublisherTest {
+
+    private MessageBus mMessageBus;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mMessageBus = new MessageBusImp();
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(2);
+        createPublisher(8, OverflowPolicy.BLOCK, false).subscribe(subscriber);
+        publish(1, 2, 3, 4, 5);
+        awaitSize(subscriber.mReceived, 2);
+        assertStaysAt(subscriber.mReceived, 2);
+        subscriber.request(3);
+        awaitSize(subscriber.mReceived, 5);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), subscriber.getContents());
+    }
+
+    @Test
+    public void nonPositiveRequestSignalsError() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(0);
+        createPublisher(8, OverflowPolicy.BLOCK, false).subscribe(subscriber);
+        subscriber.request(0);
+        assertTrue(subscriber.awaitTermination() instanceof IllegalArgumentException);
+        publish(1);
+        assertStaysAt(subscriber.mReceived, 0);
+    }
+
+    @Test
+    public void cancelStopsDelivery() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(Long.MAX_VALUE);
+        createPublisher(8, OverflowPolicy.BLOCK, false).subscribe(subscriber);
+        publish(1);
+        awaitSize(subscriber.mReceived, 1);
+        subscriber.cancel();
+        publish(2, 3);
+        assertStaysAt(subscriber.mReceived, 1);
+        assertTrue(!subscriber.mTermination.isDone());
+    }
+
+    @Test
+    public void dropNewestKeepsTheBufferedMessages() throws Exception {
+        assertEquals(Arrays.asList(1, 2), overflow(OverflowPolicy.DROP_NEWEST));
+    }
+
+    @Test
+    public void dropOldestKeepsTheLatestMessages() throws Exception {
+        assertEquals(Arrays.asList(3, 4), overflow(OverflowPolicy.DROP_OLDEST));
+    }
+
+    @Test
+    public void failRejectsMessagesOverTheBuffer() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(0);
+        createPublisher(2, OverflowPolicy.FAIL, false).subscribe(subscriber);
+        publish(1, 2);
+        try {
+            publish(3);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        subscriber.request(Long.MAX_VALUE);
+        awaitSize(subscriber.mReceived, 2);
+        assertEquals(Arrays.asList(1, 2), subscriber.getContents());
+    }
+
+    @Test
+    public void blockWaitsForDemand() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(0);
+        createPublisher(2, OverflowPolicy.BLOCK, false).subscribe(subscriber);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publish(1, 2, 3);
+            }
+        });
+        publisher.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (publisher.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, publisher.getState());
+        subscriber.request(Long.MAX_VALUE);
+        publisher.join(5000);
+        assertTrue(!publisher.isAlive());
+        awaitSize(subscriber.mReceived, 3);
+        assertEquals(Arrays.asList(1, 2, 3), subscriber.getContents());
+    }
+
+    @Test
+    public void replaysHistoryLargerThanTheBufferUnderBlock() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mMessageBus.publish(new TestMessage(i), true);
+        }
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(Long.MAX_VALUE);
+        createPublisher(2, OverflowPolicy.BLOCK, true).subscribe(subscriber);
+        awaitSize(subscriber.mReceived, 10);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), subscriber.getContents());
+    }
+
+    @Test
+    public void closeCompletesAfterBufferedMessages() throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(0);
+        FlowPublisher<TestMessage> flowPublisher = createPublisher(8, OverflowPolicy.BLOCK, false);
+        flowPublisher.subscribe(subscriber);
+        publish(1, 2);
+        flowPublisher.close();
+        publish(3);
+        subscriber.request(1);
+        awaitSize(subscriber.mReceived, 1);
+        assertTrue(!subscriber.mTermination.isDone());
+        subscriber.request(1);
+        assertSame(RecordingFlowSubscriber.COMPLETED, subscriber.awaitTermination());
+        assertEquals(Arrays.asList(1, 2), subscriber.getContents());
+    }
+
+    @Test
+    public void throwingSubscriberReceivesItsExceptionAsError() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("onNext");
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(TestMessage item) {
+                super.onNext(item);
+                throw failure;
+            }
+        };
+        createPublisher(8, OverflowPolicy.BLOCK, false).subscribe(subscriber);
+        publish(1, 2);
+        assertSame(failure, subscriber.awaitTermination());
+        publish(3);
+        assertStaysAt(subscriber.mReceived, 1);
+    }
+
+    private List<Integer> overflow(OverflowPolicy overflowPolicy) throws Exception {
+        RecordingFlowSubscriber subscriber = new RecordingFlowSubscriber(0);
+        createPublisher(2, overflowPolicy, false).subscribe(subscriber);
+        publish(1, 2, 3, 4);
+        subscriber.request(Long.MAX_VALUE);
+        awaitSize(subscriber.mReceived, 2);
+        assertStaysAt(subscriber.mReceived, 2);
+        return subscriber.getContents();
+    }
+
+    private FlowPublisher<TestMessage> createPublisher(int bufferSize, OverflowPolicy overflowPolicy, boolean receiveHistoricMessages) {
+        return new FlowPublisher<>(mMessageBus, TestMessage.class, 0, true, receiveHistoricMessages, bufferSize, overflowPolicy, mExecutor);
+    }
+
+    private void publish(int... contents) {
+        for (int content : contents) {
+            mMessageBus.publish(new TestMessage(content));
+        }
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        MessageBusContractTest.awaitSize(list, size);
+    }
+
+    /**
+     * Gives asynchronous deliveries a moment, then checks that none arrived beyond a size.
+     */
+    private static void assertStaysAt(List<?> list, int size) throws InterruptedException {
+        Thread.sleep(50);
+        assertEquals(size, list.size());
+    }
+
+    /**
+     * Flow subscriber recording what it receives, which requests an initial demand when subscribed.
+     */
+    private static class RecordingFlowSubscriber implements Flow.Subscriber<TestMessage> {
+        static final Throwable COMPLETED = new Throwable("completed");
+
+        final List<TestMessage> mReceived = Collections.synchronizedList(new ArrayList<TestMessage>());
+        final CompletableFuture<Throwable> mTermination = new CompletableFuture<>();
+        private final long mInitialDemand;
+        private volatile Flow.Subscription mSubscription;
+
+        RecordingFlowSubscriber(long initialDemand) {
+            mInitialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            mSubscription = subscription;
+            if (mInitialDemand > 0) {
+                subscription.request(mInitialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(TestMessage item) {
+            mReceived.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mTermination.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            mTermination.complete(COMPLETED);
+        }
+
+        void request(long n) {
+            mSubscription.request(n);
+        }
+
+        void cancel() {
+            mSubscription.cancel();
+        }
+
+        Throwable awaitTermination() throws Exception {
+            return mTermination.get(5, TimeUnit.SECONDS);
+        }
+
+        List<Integer> getContents() {
+            List<Integer> contents = new ArrayList<>();
+            for (TestMessage message : MessageBusContractTest.copy(mReceived)) {
+                contents.add(message.getContent());
+            }
+            return contents;
+        }
+    }
+}
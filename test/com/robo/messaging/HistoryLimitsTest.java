@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class HistoryLimitsTest {
+
+    @Test
+    public void unboundedLimitsHaveNoBounds() {
+        HistoryLimits limits = HistoryLimits.UNBOUNDED;
+        assertEquals(Integer.MAX_VALUE, limits.getMaxCount());
+        assertEquals(Long.MAX_VALUE, limits.getMaxBytes());
+        assertSame(EvictionOrder.FIFO, limits.getEvictionOrder());
+    }
+
+    @Test
+    public void busesConstructWithDefaultRepository() {
+        new InMemoryMessageRepository();
+        new MessageBusImp();
+        RingBufferMessageBus ringBufferMessageBus = new RingBufferMessageBus();
+        ringBufferMessageBus.shutdown();
+        ShardedMessageBus shardedMessageBus = new ShardedMessageBus(2);
+        shardedMessageBus.shutdown();
+    }
+
+    @Test
+    public void evictsTheFirstStoredMessageOverTheCount() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new HistoryLimits(2));
+        TestMessage first = new TestMessage(1);
+        TestMessage second = new TestMessage(2);
+        TestMessage third = new TestMessage(3);
+        repository.store(first);
+        repository.store(second);
+        repository.find(TestMessage.class, false);
+        repository.store(third);
+        assertEquals(Arrays.<Message>asList(second, third), repository.find(TestMessage.class, false));
+        assertEquals(1, repository.getEvictionCount(TestMessage.class));
+        assertEquals(1, repository.getEvictionCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedMessageOverTheCount() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(limits(2, Long.MAX_VALUE, Long.MAX_VALUE, EvictionOrder.LRU));
+        TestMessage first = new TestMessage(1);
+        TestMessage second = new TestMessage(2);
+        TestMessage third = new TestMessage(3);
+        repository.store(first);
+        repository.store(second);
+        repository.store(first);
+        repository.store(third);
+        assertEquals(Arrays.<Message>asList(first, third), repository.find(TestMessage.class, false));
+        assertEquals(1, repository.getEvictionCount(TestMessage.class));
+    }
+
+    @Test
+    public void evictsUntilTheByteBudgetHolds() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(limits(Integer.MAX_VALUE, Long.MAX_VALUE, 10, EvictionOrder.FIFO));
+        repository.store(new TestMessage(4));
+        repository.store(new TestMessage(4));
+        TestMessage large = new TestMessage(9);
+        repository.store(large);
+        assertEquals(Arrays.<Message>asList(large), repository.find(TestMessage.class, false));
+        assertEquals(2, repository.getEvictionCount(TestMessage.class));
+    }
+
+    @Test
+    public void expiresMessagesOlderThanTheMaxAge() throws Exception {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new HistoryLimits(Integer.MAX_VALUE, 50, TimeUnit.MILLISECONDS));
+        repository.store(new TestMessage(1));
+        repository.store(new TestMessage(2));
+        assertEquals(2, repository.count(TestMessage.class));
+        Thread.sleep(100);
+        TestMessage recent = new TestMessage(3);
+        repository.store(recent);
+        assertEquals(Arrays.<Message>asList(recent), repository.find(TestMessage.class, false));
+        assertEquals(2, repository.getEvictionCount(TestMessage.class));
+    }
+
+    @Test
+    public void usingAMessageDoesNotResetItsAge() throws Exception {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(limits(Integer.MAX_VALUE, 100, Long.MAX_VALUE, EvictionOrder.LRU));
+        TestMessage old = new TestMessage(1);
+        TestMessage other = new TestMessage(2);
+        repository.store(old);
+        repository.store(other);
+        // Storing the first message again puts it behind the second in access order, while it stays
+        // first in insertion order.
+        repository.store(old);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        while (System.nanoTime() < deadline) {
+            repository.find(TestMessage.class, false);
+            Thread.sleep(10);
+        }
+        Collection<Message> messages = repository.find(TestMessage.class, false);
+        assertEquals(0, messages.size());
+        assertEquals(2, repository.getEvictionCount(TestMessage.class));
+    }
+
+    /**
+     * Limits with an estimator that takes the content of a {@link TestMessage} as its size.
+     */
+    private static HistoryLimits limits(int maxCount, long maxAgeMillis, long maxBytes, EvictionOrder evictionOrder) {
+        return new HistoryLimits(maxCount, maxAgeMillis, TimeUnit.MILLISECONDS, maxBytes, new MessageSizeEstimator() {
+            @Override
+            public long estimateSize(Message message) {
+                return ((TestMessage) message).getContent();
+            }
+        }, evictionOrder);
+    }
+}
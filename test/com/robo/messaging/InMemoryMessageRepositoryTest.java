@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class InMemoryMessageRepositoryTest {
+
+    @Test
+    public void countsOnlyTheConcreteType() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository();
+        repository.store(new TestMessage(1));
+        repository.store(new TestMessage(2));
+        repository.store(new MessageBusContractTest.ChildMessage(3));
+        assertEquals(2, repository.count(TestMessage.class));
+        assertEquals(0, repository.count(MessageBusContractTest.ParentMessage.class));
+        assertEquals(1, repository.count(MessageBusContractTest.ChildMessage.class));
+    }
+
+    @Test
+    public void countingDoesNotRefreshLeastRecentlyUsedOrder() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new HistoryLimits(2, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+                Long.MAX_VALUE, new MessageSizeEstimator() {
+            @Override
+            public long estimateSize(Message message) {
+                return 0;
+            }
+        }, EvictionOrder.LRU));
+        TestMessage first = new TestMessage(1);
+        repository.store(first);
+        repository.store(new TestMessage(2));
+        assertEquals(2, repository.count(TestMessage.class));
+        repository.store(new TestMessage(3));
+        assertFalse(repository.find(TestMessage.class, false).contains(first));
+    }
+
+    @Test
+    public void iteratesLiveHistoryAcrossChunks() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository();
+        List<TestMessage> messages = new ArrayList<>();
+        int count = MessageHistory.CURSOR_CHUNK_SIZE * 3;
+        for (int i = 0; i < count; i++) {
+            TestMessage message = new TestMessage(i);
+            messages.add(message);
+            repository.store(message);
+        }
+        Iterator<Message> cursor = repository.iterate(TestMessage.class, false);
+        List<Integer> seen = new ArrayList<>();
+        for (int i = 0; i < MessageHistory.CURSOR_CHUNK_SIZE; i++) {
+            seen.add(((TestMessage) cursor.next()).getContent());
+        }
+        // The last message read, and one of the next chunk not read yet.
+        repository.remove(messages.get(MessageHistory.CURSOR_CHUNK_SIZE - 1));
+        repository.remove(messages.get(MessageHistory.CURSOR_CHUNK_SIZE + 1));
+        repository.store(new TestMessage(count));
+        while (cursor.hasNext()) {
+            seen.add(((TestMessage) cursor.next()).getContent());
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i <= count; i++) {
+            if (i != MessageHistory.CURSOR_CHUNK_SIZE + 1) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    public void reindexesTypesStoredAfterRemoveAll() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository();
+        repository.store(new MessageBusContractTest.ChildMessage(1));
+        repository.removeAll();
+        repository.store(new MessageBusContractTest.ChildMessage(2));
+        assertEquals(1, repository.find(MessageBusContractTest.ParentMessage.class, true).size());
+    }
+}
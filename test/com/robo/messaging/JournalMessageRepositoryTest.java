@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author robo-admin
+ */
+public class JournalMessageRepositoryTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysLiveMessagesOnOpen() throws IOException {
+        File directory = mFolder.newFolder();
+        JournalMessageRepository repository = open(directory);
+        TestMessage removed = new TestMessage(2);
+        repository.store(new TestMessage(1));
+        repository.store(removed);
+        repository.store(new TestMessage(3));
+        repository.remove(removed);
+        repository.close();
+
+        assertEquals(Arrays.asList(1, 3), contents(open(directory)));
+    }
+
+    @Test
+    public void compactionKeepsStoresAndRemovalsMadeMeanwhile() throws Exception {
+        File directory = mFolder.newFolder();
+        final JournalMessageRepository repository = open(directory);
+        List<TestMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestMessage message = new TestMessage(i);
+            messages.add(message);
+            repository.store(message);
+        }
+        for (int i = 0; i < 90; i++) {
+            repository.remove(messages.get(i));
+        }
+        int segmentsBefore = countSegments(directory);
+        Thread compaction = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                repository.compact();
+            }
+        });
+        compaction.start();
+        for (int i = 100; i < 110; i++) {
+            repository.store(new TestMessage(i));
+        }
+        repository.remove(messages.get(90));
+        compaction.join();
+        repository.sync();
+        repository.close();
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 91; i < 110; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, contents(open(directory)));
+        assertTrue(countSegments(directory) < segmentsBefore);
+    }
+
+    @Test
+    public void removeAllDeletesSegments() throws IOException {
+        File directory = mFolder.newFolder();
+        JournalMessageRepository repository = open(directory);
+        for (int i = 0; i < 50; i++) {
+            repository.store(new TestMessage(i));
+        }
+        repository.sync();
+        repository.removeAll();
+        assertEquals(0, countSegments(directory));
+        repository.store(new TestMessage(50));
+        repository.close();
+
+        assertEquals(Arrays.asList(50), contents(open(directory)));
+    }
+
+    private static JournalMessageRepository open(File directory) throws IOException {
+        return new JournalMessageRepository(directory, new MessageSerializer() {
+            @Override
+            public byte[] serialize(Message message) {
+                return ByteBuffer.allocate(4).putInt(((TestMessage) message).getContent()).array();
+            }
+
+            @Override
+            public Message deserialize(byte[] data) {
+                return new TestMessage(ByteBuffer.wrap(data).getInt());
+            }
+        }, SEGMENT_SIZE);
+    }
+
+    private static List<Integer> contents(MessageRepository repository) {
+        List<Integer> contents = new ArrayList<>();
+        for (Message message : repository.find(TestMessage.class, false)) {
+            contents.add(((TestMessage) message).getContent());
+        }
+        Collections.sort(contents);
+        return contents;
+    }
+
+    private static int countSegments(File directory) {
+        String[] names = directory.list();
+        return null == names ? 0 : names.length;
+    }
+}
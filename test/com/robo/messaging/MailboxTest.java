@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class MailboxTest {
+
+    private ExecutorService mExecutorService;
+
+    @Before
+    public void setUp() {
+        mExecutorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutorService.shutdownNow();
+    }
+
+    @Test
+    public void dropOldestKeepsDepthWithinCapacityWhileSubscriberIsStuck() throws Exception {
+        BlockingSubscriber subscriber = new BlockingSubscriber(1);
+        Mailbox<TestMessage> mailbox = new Mailbox<>(mExecutorService, 10, OverflowPolicy.DROP_OLDEST);
+        mailbox.post(subscriber, new TestMessage(0), false, null);
+        assertTrue(subscriber.awaitBlocked());
+        for (int i = 1; i <= 100000; i++) {
+            mailbox.post(subscriber, new TestMessage(i), false, null);
+            assertTrue(mailbox.size() <= 10);
+        }
+        subscriber.release();
+        assertTrue(subscriber.awaitReceived(10));
+        assertEquals(Arrays.asList(0, 99992, 99993, 99994, 99995, 99996, 99997, 99998, 99999, 100000), subscriber.getReceived());
+    }
+
+    @Test
+    public void dropOldestEvictsSingleMessagesOfABatch() throws Exception {
+        BlockingSubscriber subscriber = new BlockingSubscriber(1);
+        Mailbox<TestMessage> mailbox = new Mailbox<>(mExecutorService, 4, OverflowPolicy.DROP_OLDEST);
+        mailbox.post(subscriber, new TestMessage(0), false, null);
+        assertTrue(subscriber.awaitBlocked());
+        mailbox.postAll(subscriber, Arrays.asList(new TestMessage(1), new TestMessage(2), new TestMessage(3)), false, null);
+        mailbox.post(subscriber, new TestMessage(4), false, null);
+        assertEquals(4, mailbox.size());
+        subscriber.release();
+        assertTrue(subscriber.awaitReceived(4));
+        assertEquals(Arrays.asList(0, 2, 3, 4), subscriber.getReceived());
+    }
+
+    @Test
+    public void dropOldestReportsEveryDroppedMessage() throws Exception {
+        BlockingSubscriber subscriber = new BlockingSubscriber(1);
+        Mailbox<TestMessage> mailbox = new Mailbox<>(mExecutorService, 2, OverflowPolicy.DROP_OLDEST);
+        CountingCallback callback = new CountingCallback();
+        mailbox.post(subscriber, new TestMessage(0), false, callback);
+        assertTrue(subscriber.awaitBlocked());
+        for (int i = 1; i <= 5; i++) {
+            mailbox.post(subscriber, new TestMessage(i), false, callback);
+        }
+        assertEquals(4, callback.mDropped);
+        subscriber.release();
+        assertTrue(subscriber.awaitReceived(2));
+        assertEquals(Arrays.asList(0, 5), subscriber.getReceived());
+    }
+
+    /**
+     * Blocks in {@link #receive(TestMessage)} until released, after the first message.
+     */
+    static final class BlockingSubscriber implements Subscriber<TestMessage> {
+        private final CountDownLatch mBlocked;
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+        private final List<Integer> mReceived = Collections.synchronizedList(new ArrayList<Integer>());
+
+        BlockingSubscriber(int blockAfter) {
+            mBlocked = new CountDownLatch(blockAfter);
+        }
+
+        @Override
+        public void receive(TestMessage message) {
+            mReceived.add(message.getContent());
+            mBlocked.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return mBlocked.await(5, TimeUnit.SECONDS);
+        }
+
+        void release() {
+            mRelease.countDown();
+        }
+
+        boolean awaitReceived(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (mReceived.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(20);
+            return mReceived.size() == count;
+        }
+
+        List<Integer> getReceived() {
+            synchronized (mReceived) {
+                return new ArrayList<>(mReceived);
+            }
+        }
+    }
+
+    static final class CountingCallback implements BackpressureCallback {
+        volatile int mDropped;
+
+        @Override
+        public void messageDropped() {
+            mDropped++;
+        }
+
+        @Override
+        public void backpressureApplied() {
+        }
+
+        @Override
+        public void noSubscriber() {
+        }
+
+        @Override
+        public void messageEnqueued() {
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Behaviour every {@link MessageBus} implementation shares. Deliveries may be asynchronous, so
+ * assertions wait for the expected number of deliveries first.
+ *
+ * @author robo-admin
+ */
+public abstract class MessageBusContractTest {
+
+    protected MessageBus mMessageBus;
+
+    protected abstract MessageBus createMessageBus();
+
+    protected void shutdown(MessageBus messageBus) {
+    }
+
+    @Before
+    public void setUp() {
+        mMessageBus = createMessageBus();
+    }
+
+    @After
+    public void tearDown() {
+        shutdown(mMessageBus);
+    }
+
+    @Test
+    public void deliversInPriorityOrder() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "2", received), 2, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "0", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "1", received), 1, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.publish(new TestMessage(1));
+        awaitSize(received, 3);
+        assertEquals(Arrays.asList("0", "1", "2"), copy(received));
+    }
+
+    @Test
+    public void deliversChildMessagesOnlyToSubscribersAcceptingThem() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        mMessageBus.subscribe(new RecordingSubscriber<ParentMessage>(ParentMessage.class, "accepting", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new RecordingSubscriber<ParentMessage>(ParentMessage.class, "refusing", received), 1, false, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new RecordingSubscriber<ChildMessage>(ChildMessage.class, "child", received), 2, false, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.publish(new ChildMessage());
+        awaitSize(received, 2);
+        mMessageBus.publish(new ParentMessage());
+        awaitSize(received, 4);
+        assertEquals(Arrays.asList("accepting:ChildMessage", "child:ChildMessage", "accepting:ParentMessage", "refusing:ParentMessage"),
+                copy(received));
+    }
+
+    @Test
+    public void deliversSubTypesThroughInterfaces() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        mMessageBus.subscribe(new RecordingSubscriber<Marker>(Marker.class, "marker", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.publish(new ChildMessage());
+        mMessageBus.publish(new TestMessage(1));
+        mMessageBus.publish(new ChildMessage());
+        awaitSize(received, 2);
+        assertEquals(Arrays.asList("marker:ChildMessage", "marker:ChildMessage"), copy(received));
+    }
+
+    @Test
+    public void requestAllGathersRepliesOfRequestSubscribers() throws Exception {
+        final MessageBus messageBus = mMessageBus;
+        for (int i = 0; i < 3; i++) {
+            final int factor = i;
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    messageBus.reply(message, new ChildMessage(message.getContent() * factor));
+                }
+            }, i, true, false, ThreadOption.PUBLISHER, true);
+        }
+        List<ChildMessage> replies = messageBus.requestAll(new TestMessage(2), ChildMessage.class, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertEquals(3, replies.size());
+    }
+
+    static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("expected " + size + " deliveries, got " + list.size(), list.size() >= size);
+    }
+
+    static <T> List<T> copy(List<T> list) {
+        synchronized (list) {
+            return new ArrayList<>(list);
+        }
+    }
+
+    interface Marker extends Message<Integer> {
+    }
+
+    static class ParentMessage extends AbstractMessage<Integer> {
+        ParentMessage() {
+            this(0);
+        }
+
+        ParentMessage(int content) {
+            super(content);
+        }
+    }
+
+    static class ChildMessage extends ParentMessage implements Marker {
+        ChildMessage() {
+        }
+
+        ChildMessage(int content) {
+            super(content);
+        }
+    }
+
+    /**
+     * Records "name" for messages of the subscribed type and "name:Class" for others.
+     */
+    static class RecordingSubscriber<TMessage extends Message> implements Subscriber<TMessage>, TypedSubscriber {
+        private final Class<TMessage> mMessageType;
+        private final String mName;
+        private final List<String> mReceived;
+
+        RecordingSubscriber(Class<TMessage> messageType, String name, List<String> received) {
+            mMessageType = messageType;
+            mName = name;
+            mReceived = received;
+        }
+
+        @Override
+        public Class<? extends Message> getMessageType() {
+            return mMessageType;
+        }
+
+        @Override
+        public void receive(TMessage message) {
+            mReceived.add(message instanceof TestMessage ? mName : mName + ":" + message.getClass().getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class MessageBusImpTest extends MessageBusContractTest {
+
+    @Override
+    protected MessageBus createMessageBus() {
+        return new MessageBusImp();
+    }
+
+    @Test
+    public void countsHistoricMessagesDroppedDuringReplay() {
+        MessageBusImp messageBus = new MessageBusImp();
+        messageBus.setMetricsEnabled(true);
+        messageBus.setHistoryChunkSize(10);
+        for (int i = 0; i < 10; i++) {
+            messageBus.publish(new TestMessage(i), true);
+        }
+        final AtomicInteger received = new AtomicInteger();
+        messageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                received.incrementAndGet();
+            }
+        }, 0, true, true, ThreadOption.BACKGROUND, true, 1, OverflowPolicy.DROP_OLDEST);
+        assertEquals(9, messageBus.getMetrics().getReplayDropCount(TestMessage.class));
+    }
+
+    @Test
+    public void liveMessageHeldDuringReplayIsNotFlaggedHistoric() {
+        final MessageBusImp messageBus = new MessageBusImp();
+        // Replays one message at a time, so that the cursor reads on after each delivery.
+        messageBus.setHistoryChunkSize(1);
+        messageBus.publish(new TestMessage(0), true);
+        final TestMessage live = new TestMessage(1);
+        final List<TestMessage> received = new ArrayList<>();
+        final List<Boolean> historicFlags = new ArrayList<>();
+        messageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                received.add(message);
+                historicFlags.add(message.isHistoric());
+                if (message.getContent() == 0) {
+                    // Published while the replay runs: held back, then read again by the replay's cursor.
+                    messageBus.publish(live, true);
+                }
+            }
+        }, 0, true, true, ThreadOption.PUBLISHER, true);
+        assertEquals(2, received.size());
+        assertTrue(historicFlags.get(0));
+        assertEquals(live, received.get(1));
+        assertFalse(historicFlags.get(1));
+        assertFalse(live.isHistoric());
+    }
+
+    @Test
+    public void keyedSubscribeWithoutExtractorFails() {
+        MessageBusImp messageBus = new MessageBusImp();
+        try {
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                }
+            }, 1, 0, true, false, ThreadOption.PUBLISHER, true);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void keyedSubscriptionAppliesOverflowPolicy() {
+        final MessageBusImp messageBus = new MessageBusImp();
+        messageBus.setRoutingKeyExtractor(TestMessage.class, new KeyExtractor<Integer>() {
+            @Override
+            public Object extractKey(Integer content) {
+                return content % 2;
+            }
+        });
+        final DropCounter callback = new DropCounter();
+        messageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                if (message.getContent() == 1) {
+                    // The queue still holds the message being delivered, so this one overflows it.
+                    messageBus.publish(new TestMessage(3), false, callback);
+                }
+            }
+        }, 1, 0, true, false, ThreadOption.BACKGROUND, true, 1, OverflowPolicy.DROP_NEWEST);
+        messageBus.publish(new TestMessage(1), false, callback);
+        assertEquals(1, callback.awaitDrops());
+    }
+
+    @Test
+    public void channelSubscriptionAppliesOverflowPolicy() {
+        final MessageBusImp messageBus = new MessageBusImp();
+        final DropCounter callback = new DropCounter();
+        messageBus.subscribe("channel", new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                if (message.getContent() == 1) {
+                    // The queue still holds the message being delivered, so this one overflows it.
+                    messageBus.publish("channel", new TestMessage(2), callback);
+                }
+            }
+        }, 0, true, ThreadOption.BACKGROUND, true, 1, OverflowPolicy.DROP_NEWEST);
+        messageBus.publish("channel", new TestMessage(1), callback);
+        assertEquals(1, callback.awaitDrops());
+    }
+
+    private static final class DropCounter implements BackpressureCallback {
+        private final AtomicInteger mDropped = new AtomicInteger();
+
+        /**
+         * Waits for a first drop, as delivery may happen on another thread.
+         */
+        int awaitDrops() {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (mDropped.get() == 0 && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+            return mDropped.get();
+        }
+
+        @Override
+        public void messageDropped() {
+            mDropped.incrementAndGet();
+        }
+
+        @Override
+        public void backpressureApplied() {
+        }
+
+        @Override
+        public void noSubscriber() {
+        }
+
+        @Override
+        public void messageEnqueued() {
+        }
+    }
+}
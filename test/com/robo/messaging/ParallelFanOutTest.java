@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class ParallelFanOutTest {
+
+    @Test
+    public void handsBackgroundSubscribersOffFromThePublisherThread() throws Exception {
+        MessageBusImp messageBus = new MessageBusImp();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        messageBus.setParallelFanOut(pool, 2);
+        final List<Thread> backgroundThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        final List<Thread> publisherThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        for (int i = 0; i < 4; i++) {
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    backgroundThreads.add(Thread.currentThread());
+                }
+            }, 0, true, false, ThreadOption.BACKGROUND, true);
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    publisherThreads.add(Thread.currentThread());
+                }
+            }, 0, true, false, ThreadOption.PUBLISHER, true);
+        }
+        messageBus.publish(new TestMessage(1));
+        MessageBusContractTest.awaitSize(backgroundThreads, 4);
+        assertEquals(4, publisherThreads.size());
+        for (Thread thread : MessageBusContractTest.copy(backgroundThreads)) {
+            assertFalse(thread instanceof ForkJoinWorkerThread);
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void disablingIgnoresTheThreshold() {
+        MessageBusImp messageBus = new MessageBusImp();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        messageBus.setParallelFanOut(pool, 2);
+        messageBus.setParallelFanOut(null, 0);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        for (int i = 0; i < 4; i++) {
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    threads.add(Thread.currentThread());
+                }
+            }, 0, true, false, ThreadOption.PUBLISHER, true);
+        }
+        messageBus.publish(new TestMessage(1));
+        assertEquals(4, threads.size());
+        for (Thread thread : MessageBusContractTest.copy(threads)) {
+            assertSame(Thread.currentThread(), thread);
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void deliversToATierInParallelAndToTheNextTierAfterIt() throws Exception {
+        MessageBusImp messageBus = new MessageBusImp();
+        final int tierSize = 3;
+        ForkJoinPool pool = new ForkJoinPool(tierSize);
+        messageBus.setParallelFanOut(pool, 2);
+        // Each subscriber of the first tier waits for all of them to have started, which only
+        // happens if their deliveries overlap.
+        final CountDownLatch started = new CountDownLatch(tierSize);
+        final AtomicInteger overlapping = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < tierSize; i++) {
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    started.countDown();
+                    try {
+                        if (started.await(5, TimeUnit.SECONDS)) {
+                            overlapping.incrementAndGet();
+                        }
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.incrementAndGet();
+                }
+            }, 0, true, false, ThreadOption.PUBLISHER, true);
+        }
+        final List<Integer> finishedBeforeNextTier = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 2; i++) {
+            messageBus.subscribe(new Subscriber<TestMessage>() {
+                @Override
+                public void receive(TestMessage message) {
+                    finishedBeforeNextTier.add(finished.get());
+                }
+            }, 1, true, false, ThreadOption.PUBLISHER, true);
+        }
+        messageBus.publish(new TestMessage(1));
+        assertEquals(tierSize, overlapping.get());
+        assertEquals(2, finishedBeforeNextTier.size());
+        for (int finishedCount : MessageBusContractTest.copy(finishedBeforeNextTier)) {
+            assertEquals(tierSize, finishedCount);
+        }
+        assertTrue(pool.shutdownNow().isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Guards that publishing to {@link ThreadOption#PUBLISHER PUBLISHER} subscribers allocates nothing
+ * once subscriptions stop changing.
+ *
+ * @author robo-admin
+ */
+public class PublishAllocationTest {
+
+    private static final int WARM_UP_PUBLISHES = 50000;
+    private static final int MEASURED_PUBLISHES = 10000;
+
+    @Test
+    public void steadyStatePublishDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        MessageBusImp messageBus = new MessageBusImp();
+        CountingSubscriber strongSubscriber = new CountingSubscriber();
+        CountingSubscriber weakSubscriber = new CountingSubscriber();
+        for (int i = 0; i < 5; i++) {
+            messageBus.subscribe(strongSubscriber, i, true, false, ThreadOption.PUBLISHER, true);
+            messageBus.subscribe(weakSubscriber, i, true, false, ThreadOption.PUBLISHER, false);
+        }
+        TestMessage message = new TestMessage(1);
+        for (int i = 0; i < WARM_UP_PUBLISHES; i++) {
+            messageBus.publish(message);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // The first call may allocate on its own.
+        allocationBean.getThreadAllocatedBytes(threadId);
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_PUBLISHES; i++) {
+            messageBus.publish(message);
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(0, allocated);
+        assertEquals(5L * (WARM_UP_PUBLISHES + MEASURED_PUBLISHES), weakSubscriber.mCount);
+    }
+
+    private static final class CountingSubscriber implements Subscriber<TestMessage> {
+        long mCount;
+
+        @Override
+        public void receive(TestMessage message) {
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * @author robo-admin
+ */
+public class RequestReplyTest {
+
+    @Test
+    public void requestAllDoesNotWaitForSuperTypeListeners() throws Exception {
+        final MessageBus messageBus = new MessageBusImp();
+        messageBus.subscribe(new Subscriber<ValueRequest>() {
+            @Override
+            public void receive(ValueRequest message) {
+                messageBus.reply(message, new TestMessage(message.getContent() * 2));
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        messageBus.subscribe(new Subscriber<Message>() {
+            @Override
+            public void receive(Message message) {
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        long start = System.nanoTime();
+        List<TestMessage> replies = messageBus.requestAll(new ValueRequest(21), TestMessage.class, 1, TimeUnit.SECONDS)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(1, replies.size());
+        assertEquals(42, (int) replies.get(0).getContent());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void requestAllCompletesOnceBackgroundRepliersHaveReplied() throws Exception {
+        final MessageBus messageBus = new MessageBusImp();
+        final int replierCount = 4;
+        for (int i = 0; i < replierCount; i++) {
+            messageBus.subscribe(new Subscriber<ValueRequest>() {
+                @Override
+                public void receive(ValueRequest message) {
+                    messageBus.reply(message, new TestMessage(message.getContent()));
+                }
+            }, 0, true, false, ThreadOption.BACKGROUND, true);
+        }
+        // Requests are sent from the main thread, so that background repliers are handed off to the
+        // executor and race with the request being dispatched.
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        for (int round = 0; round < 50; round++) {
+            final int value = round;
+            final AtomicReference<CompletableFuture<List<TestMessage>>> future = new AtomicReference<>();
+            final CompletableFuture<Void> sent = new CompletableFuture<>();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    future.set(messageBus.requestAll(new ValueRequest(value), TestMessage.class, 5, TimeUnit.SECONDS));
+                    sent.complete(null);
+                }
+            });
+            sent.get(1, TimeUnit.SECONDS);
+            List<TestMessage> replies = future.get().get(1, TimeUnit.SECONDS);
+            assertEquals(replierCount, replies.size());
+            for (TestMessage reply : replies) {
+                assertEquals(value, (int) reply.getContent());
+            }
+        }
+    }
+
+    @Test
+    public void requestsEqualByValueArePendingSeparately() throws Exception {
+        final MessageBus messageBus = new MessageBusImp();
+        messageBus.subscribe(new Subscriber<ValueRequest>() {
+            @Override
+            public void receive(ValueRequest message) {
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        ValueRequest first = new ValueRequest(1);
+        ValueRequest second = new ValueRequest(1);
+        CompletableFuture<TestMessage> firstReply = messageBus.request(first, TestMessage.class, 5, TimeUnit.SECONDS);
+        CompletableFuture<TestMessage> secondReply = messageBus.request(second, TestMessage.class, 5, TimeUnit.SECONDS);
+        TestMessage reply = new TestMessage(2);
+        assertTrue(messageBus.reply(second, reply));
+        assertSame(reply, secondReply.get(1, TimeUnit.SECONDS));
+        assertTrue(!firstReply.isDone());
+        assertTrue(messageBus.reply(first, reply));
+        assertSame(reply, firstReply.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestFailingToPublishLeavesTheTable() throws Exception {
+        final MessageBus messageBus = new MessageBusImp();
+        messageBus.subscribe(new Subscriber<ValueRequest>() {
+            @Override
+            public void receive(ValueRequest message) {
+                if (message.getContent() < 0) {
+                    throw new IllegalArgumentException("negative");
+                }
+                messageBus.reply(message, new TestMessage(message.getContent()));
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        ValueRequest request = new ValueRequest(-1);
+        try {
+            messageBus.request(request, TestMessage.class, 5, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(!messageBus.reply(request, new TestMessage(0)));
+        // The same request can be sent again instead of being reported as already pending.
+        try {
+            messageBus.request(request, TestMessage.class, 5, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void requestWithoutSubscriberFails() throws Exception {
+        MessageBus messageBus = new MessageBusImp();
+        try {
+            messageBus.request(new ValueRequest(1), TestMessage.class, 5, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * Request equal to any other request carrying the same value.
+     */
+    static final class ValueRequest extends AbstractMessage<Integer> {
+        ValueRequest(int content) {
+            super(content);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ValueRequest && ((ValueRequest) obj).getContent().equals(getContent());
+        }
+
+        @Override
+        public int hashCode() {
+            return getContent();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class RingBufferMessageBusTest extends MessageBusContractTest {
+
+    @Override
+    protected MessageBus createMessageBus() {
+        return new RingBufferMessageBus(8, WaitStrategy.PARK);
+    }
+
+    @Override
+    protected void shutdown(MessageBus messageBus) {
+        ((RingBufferMessageBus) messageBus).shutdown();
+    }
+
+    @Test
+    public void publishAllCopiesTheBatch() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mMessageBus.subscribe(new Subscriber<ParentMessage>() {
+            @Override
+            public void receive(ParentMessage message) {
+                blocked.countDown();
+                await(release);
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "test", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        mMessageBus.publish(new ParentMessage());
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        List<TestMessage> batch = new ArrayList<>(Arrays.asList(new TestMessage(1), new TestMessage(2)));
+        mMessageBus.publishAll(batch);
+        batch.clear();
+        release.countDown();
+        awaitSize(received, 2);
+    }
+
+    @Test
+    public void dispatcherSurvivesErrorsThrownBySubscribers() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        mMessageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                if (received.incrementAndGet() == 1) {
+                    throw new AssertionError("subscriber failure");
+                }
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        Thread.UncaughtExceptionHandler quiet = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+            }
+        };
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(quiet);
+        try {
+            // More messages than slots, so a dead dispatcher would leave the publisher waiting forever.
+            for (int i = 0; i < 20; i++) {
+                mMessageBus.publish(new TestMessage(i));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.get() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(20, received.get());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+
+    @Test
+    public void deliversWhatWasPublishedBeforeShutdownThenRefuses() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "test", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        for (int i = 0; i < 5; i++) {
+            mMessageBus.publish(new TestMessage(i));
+        }
+        ((RingBufferMessageBus) mMessageBus).shutdown();
+        awaitSize(received, 5);
+        try {
+            mMessageBus.publish(new TestMessage(5));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void requestsRunOnTheDispatcherThread() throws Exception {
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final MessageBus messageBus = mMessageBus;
+        messageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                threads.add(Thread.currentThread().getName());
+                messageBus.reply(message, new TestMessage(message.getContent()));
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        messageBus.publish(new TestMessage(0));
+        TestMessage reply = messageBus.request(new TestMessage(1), TestMessage.class, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertEquals(1, (int) reply.getContent());
+        assertEquals(Arrays.asList("MessageBus-Dispatcher", "MessageBus-Dispatcher"), copy(threads));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class SequentialTokenGeneratorTest {
+
+    @Test
+    public void tokensOfDifferentGeneratorsNeverCollide() {
+        Subscriber<TestMessage> subscriber = new CountingSubscriber();
+        SubscriptionToken first = new SequentialTokenGenerator().generateToken(subscriber);
+        SubscriptionToken second = new SequentialTokenGenerator().generateToken(subscriber);
+        assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void unsubscribingATokenOfAnotherBusLeavesSubscriptionsAlone() {
+        MessageBus busX = new MessageBusImp();
+        MessageBus busY = new MessageBusImp();
+        CountingSubscriber subscriberX = new CountingSubscriber();
+        busX.subscribe(subscriberX, 0, true, false, ThreadOption.PUBLISHER, true);
+        SubscriptionToken tokenY = busY.subscribe(new CountingSubscriber(), 0, true, false, ThreadOption.PUBLISHER, true);
+        busX.unsubscribe(tokenY);
+        busX.publish(new TestMessage(1));
+        assertEquals(1, subscriberX.mCount);
+    }
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void unresolvableMessageTypeIsNull() {
+        Subscriber subscriber = new Subscriber() {
+            @Override
+            public void receive(Message message) {
+            }
+        };
+        assertNull(MessageTypes.of(subscriber));
+        assertNull(new SequentialTokenGenerator().generateToken(subscriber).getMessageType());
+    }
+
+    static final class CountingSubscriber implements Subscriber<TestMessage> {
+        int mCount;
+
+        @Override
+        public void receive(TestMessage message) {
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class ShardedMessageBusTest extends MessageBusContractTest {
+
+    private static final int SHARD_COUNT = 4;
+
+    @Override
+    protected MessageBus createMessageBus() {
+        return new ShardedMessageBus(SHARD_COUNT, 8, WaitStrategy.PARK);
+    }
+
+    @Override
+    protected void shutdown(MessageBus messageBus) {
+        ((ShardedMessageBus) messageBus).shutdown();
+    }
+
+    @Test
+    public void routesKeyedMessagesToTheShardOfTheirKey() throws Exception {
+        mMessageBus.setRoutingKeyExtractor(TestMessage.class, new KeyExtractor<Integer>() {
+            @Override
+            public Object extractKey(Integer content) {
+                return content;
+            }
+        });
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        mMessageBus.subscribe(new RecordingSubscriber<TestMessage>(TestMessage.class, "all", received), 0, true, false, ThreadOption.PUBLISHER, true);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            mMessageBus.publish(new TestMessage(i), true);
+        }
+        awaitSize(received, SHARD_COUNT);
+        assertEquals(SHARD_COUNT, mMessageBus.getHistoryCount());
+    }
+
+    @Test
+    public void removesMessagesStoredUnderAnEarlierKeyExtractor() throws Exception {
+        mMessageBus.setRoutingKeyExtractor(TestMessage.class, new KeyExtractor<Integer>() {
+            @Override
+            public Object extractKey(Integer content) {
+                return content;
+            }
+        });
+        List<TestMessage> messages = new ArrayList<>();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            TestMessage message = new TestMessage(i);
+            messages.add(message);
+            mMessageBus.publish(message, true);
+        }
+        awaitHistoryCount(SHARD_COUNT);
+
+        // Without an extractor every message routes to one shard, while they are stored on all of them.
+        mMessageBus.setRoutingKeyExtractor(TestMessage.class, null);
+        for (TestMessage message : messages) {
+            mMessageBus.remove(message);
+        }
+        awaitHistoryCount(0);
+    }
+
+    @Test
+    public void keepsOrderPerKeyWhileShardsDispatchInParallel() throws Exception {
+        final int keyCount = 2 * SHARD_COUNT;
+        final int publisherCount = 2;
+        final int messagesPerKey = 200;
+        // Content is sequence * 100 + key, and an Integer key lands on shard key % SHARD_COUNT.
+        mMessageBus.setRoutingKeyExtractor(TestMessage.class, new KeyExtractor<Integer>() {
+            @Override
+            public Object extractKey(Integer content) {
+                return content % 100;
+            }
+        });
+        final List<List<Integer>> sequencesByKey = new ArrayList<>();
+        final List<Set<Thread>> threadsByShard = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            sequencesByKey.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            threadsByShard.add(Collections.synchronizedSet(new HashSet<Thread>()));
+        }
+        final List<TestMessage> received = Collections.synchronizedList(new ArrayList<TestMessage>());
+        mMessageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                int key = message.getContent() % 100;
+                sequencesByKey.get(key).add(message.getContent() / 100);
+                threadsByShard.get(key % SHARD_COUNT).add(Thread.currentThread());
+                received.add(message);
+            }
+        }, 0, true, false, ThreadOption.BACKGROUND, true);
+
+        // Each publisher owns every other key and publishes them interleaved.
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> publishers = new ArrayList<>();
+        for (int p = 0; p < publisherCount; p++) {
+            final int firstKey = p;
+            Thread publisher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int sequence = 0; sequence < messagesPerKey; sequence++) {
+                        for (int key = firstKey; key < keyCount; key += publisherCount) {
+                            mMessageBus.publish(new TestMessage(sequence * 100 + key));
+                        }
+                    }
+                }
+            });
+            publisher.start();
+            publishers.add(publisher);
+        }
+        start.countDown();
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        awaitSize(received, keyCount * messagesPerKey);
+
+        for (List<Integer> sequences : sequencesByKey) {
+            List<Integer> copy = copy(sequences);
+            assertEquals(messagesPerKey, copy.size());
+            for (int i = 0; i < copy.size(); i++) {
+                assertEquals(i, (int) copy.get(i));
+            }
+        }
+        Set<Thread> dispatcherThreads = new HashSet<>();
+        for (Set<Thread> threads : threadsByShard) {
+            synchronized (threads) {
+                assertEquals(1, threads.size());
+                dispatcherThreads.addAll(threads);
+            }
+        }
+        assertEquals(SHARD_COUNT, dispatcherThreads.size());
+    }
+
+    private void awaitHistoryCount(int historyCount) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mMessageBus.getHistoryCount() != historyCount && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(historyCount, mMessageBus.getHistoryCount());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class SlowSubscriberDetectorTest {
+
+    @Test
+    public void demotedSubscriberNoLongerRunsOnPublisherThread() throws Exception {
+        final MessageBusImp messageBus = new MessageBusImp();
+        messageBus.setSlowSubscriberDetection(5, TimeUnit.MILLISECONDS, true);
+        final List<String> deliveryThreads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch delivered = new CountDownLatch(5);
+        SubscriptionToken token = messageBus.subscribe(new Subscriber<TestMessage>() {
+            @Override
+            public void receive(TestMessage message) {
+                deliveryThreads.add(Thread.currentThread().getName());
+                sleep(20);
+                delivered.countDown();
+            }
+        }, 0, true, false, ThreadOption.PUBLISHER, true);
+        final long[] laterPublishNanos = new long[1];
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                messageBus.publish(new TestMessage(0));
+                long start = System.nanoTime();
+                for (int i = 1; i < 5; i++) {
+                    messageBus.publish(new TestMessage(i));
+                }
+                laterPublishNanos[0] = System.nanoTime() - start;
+            }
+        }, "worker-publisher");
+        publisher.start();
+        publisher.join();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(messageBus.isSlowSubscriber(token));
+        assertEquals("worker-publisher", deliveryThreads.get(0));
+        for (String deliveryThread : deliveryThreads.subList(1, 5)) {
+            assertEquals("MessageBus-SlowLane", deliveryThread);
+        }
+        assertTrue(laterPublishNanos[0] < TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2016 Robo Creative - https://robo-creative.github.io.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.robo.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author robo-admin
+ */
+public class ThreadLocalBlockSequenceTest {
+
+    @Test
+    public void startsAtTheFirstNumber() {
+        ThreadLocalBlockSequence sequence = new ThreadLocalBlockSequence(1, 4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(sequence.next() >= 1);
+        }
+    }
+
+    @Test
+    public void handsOutUniqueNumbersAcrossThreads() throws InterruptedException {
+        final ThreadLocalBlockSequence sequence = new ThreadLocalBlockSequence(0, 16);
+        final List<Long> numbers = Collections.synchronizedList(new ArrayList<Long>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        numbers.add(sequence.next());
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Long> unique = new HashSet<>(numbers);
+        assertEquals(4000, unique.size());
+    }
+}